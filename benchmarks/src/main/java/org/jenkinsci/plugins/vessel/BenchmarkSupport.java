@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+class BenchmarkSupport {
+
+    /**
+     * A temporary file of random, hence incompressible, bytes.
+     */
+    static File createFile(long size) throws IOException {
+        File file = File.createTempFile("vessel-bench", ".ipa");
+        file.deleteOnExit();
+        Random random = new Random(42);
+        byte [] buffer = new byte[64 * 1024];
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int)Math.min(buffer.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("vessel-bench", null);
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    static void delete(File file) {
+        FileUtils.deleteQuietly(file);
+    }
+
+    static VesselUploader.UploadRequest createRequest(File file) {
+        VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
+        ur.apiKey = "0123456789abcdef";
+        ur.releaseNotes = "Benchmark build";
+        ur.replace = false;
+        ur.users = "qa@example.com";
+        ur.userGroups = "testers";
+        ur.file = file;
+        return ur;
+    }
+
+    /**
+     * Swallows what is written, counting it.
+     */
+    static class CountingSink extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking for the .ipa in a synthetic workspace: a tree of the given depth and
+ * fan-out with the .ipa in its deepest corner, next to large directories the
+ * search should prune.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IpaDiscoveryBenchmark {
+
+    @Param({"4", "8"})
+    public int depth;
+
+    @Param({"3"})
+    public int fanOut;
+
+    private File workspace;
+    private String ipa;
+
+    @Setup
+    public void setUp() throws IOException {
+        workspace = BenchmarkSupport.createTempDir();
+        createTree(workspace, depth);
+        File deepest = workspace;
+        for (int i = 0; i < depth; i++) {
+            deepest = new File(deepest, "d" + (fanOut - 1));
+        }
+        File file = new File(deepest, "App.ipa");
+        file.createNewFile();
+        ipa = file.getAbsolutePath().substring(workspace.getAbsolutePath().length() + 1);
+
+        for (String pruned : new String [] {"node_modules", "DerivedData", "Pods"}) {
+            File dir = new File(workspace, pruned);
+            for (int i = 0; i < 50; i++) {
+                File sub = new File(dir, "m" + i);
+                sub.mkdirs();
+                for (int j = 0; j < 20; j++) {
+                    new File(sub, "f" + j).createNewFile();
+                }
+            }
+        }
+    }
+
+    private void createTree(File dir, int levels) throws IOException {
+        for (int i = 0; i < 5; i++) {
+            new File(dir, "source" + i + ".m").createNewFile();
+        }
+        if (levels == 0) {
+            return;
+        }
+        for (int i = 0; i < fanOut; i++) {
+            File sub = new File(dir, "d" + i);
+            sub.mkdir();
+            createTree(sub, levels - 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.delete(workspace);
+    }
+
+    @Benchmark
+    public String search() throws IOException, InterruptedException {
+        return new IpaFinder(16, false, null, 0).invoke(workspace, null);
+    }
+
+    @Benchmark
+    public String searchNewest() throws IOException, InterruptedException {
+        return new IpaFinder(16, true, null, 0).invoke(workspace, null);
+    }
+
+    @Benchmark
+    public String cached() throws IOException, InterruptedException {
+        // The path found by the previous build is still fresh
+        return new IpaFinder(16, false, ipa, 0).invoke(workspace, null);
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding the multipart body of a single request upload, without the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultipartBenchmark {
+
+    @Param({"1", "64", "256"})
+    public int sizeMb;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = BenchmarkSupport.createFile(sizeMb * 1024L * 1024L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.delete(file);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        List<Part> parts = VesselUploader.getFormParts(BenchmarkSupport.createRequest(file));
+        parts.add(0, new FilePart("file", file));
+        RequestEntity entity = VesselUploader.toRequestEntity(parts);
+        BenchmarkSupport.CountingSink sink = new BenchmarkSupport.CountingSink();
+        entity.writeRequest(sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long encodeTimed() throws IOException {
+        // The same with the instrumentation wrapper of the uploader
+        List<Part> parts = VesselUploader.getFormParts(BenchmarkSupport.createRequest(file));
+        parts.add(0, new FilePart("file", file));
+        RequestEntity entity = new VesselUploader.TimedRequestEntity(VesselUploader.toRequestEntity(parts), null);
+        BenchmarkSupport.CountingSink sink = new BenchmarkSupport.CountingSink();
+        entity.writeRequest(sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long encodeSliced() throws IOException {
+        VesselUploader.UploadRequest ur = BenchmarkSupport.createRequest(file);
+        RequestEntity entity = new ArtifactRequestEntity(VesselUploader.getFormFields(ur), "file", file);
+        BenchmarkSupport.CountingSink sink = new BenchmarkSupport.CountingSink();
+        entity.writeRequest(sink);
+        return sink.count;
+    }
+}
@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing Vessel answers, a typical one and one with thousands of warnings and errors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResponseParseBenchmark {
+
+    static final String SMALL = "{\"push.info\":{\"push.noUsersInvited\":4,\"push.directDownloadUrl\":\"http://zubhi.co/g/xxx/\","
+            + "\"push.warnings\":[\"warning1\",\"warning2\"],\"push.versionName\":\"5.0\",\"push.socialUrl\":\"http://zubhi.co/d/xxxx/\","
+            + "\"push.versionCode\":\"110\",\"push.proguardEnabled\":false},\"success\":true}";
+
+    @Param({"small", "large"})
+    public String payload;
+
+    private byte [] bytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("small".equals(payload)) {
+            bytes = SMALL.getBytes("UTF-8");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"push.info\":{\"push.directDownloadUrl\":\"http://zubhi.co/g/xxx/\",\"push.warnings\":[");
+        for (int i = 0; i < 10000; i++) {
+            json.append(i > 0 ? "," : "").append("\"Warning number ").append(i).append(" about the uploaded build\"");
+        }
+        json.append("]},\"push.errors\":{\"fielderrors\":{");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i > 0 ? "," : "").append("\"field").append(i).append("\":[\"first problem\",\"second problem\"]");
+        }
+        json.append("},\"no_errors\":2000},\"success\":false}");
+        bytes = json.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public VesselResponse parse() throws IOException, ParseException {
+        return VesselUploader.parseVesselResponse(new ByteArrayInputStream(bytes));
+    }
+}
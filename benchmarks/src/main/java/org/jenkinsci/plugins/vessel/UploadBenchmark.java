@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole uploads against {@link VesselStandInServer} on the loopback interface,
+ * by 1, 8 and 32 concurrent callers, with each {@link HttpTransport}. The callers
+ * share the plugin wide client, beyond its per route limit they queue for a
+ * connection as builds would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"1", "16"})
+    public int sizeMb;
+
+    @Param({"0", "4"})
+    public int chunkSizeMb;
+
+    @Param({HttpTransport.COMMONS, HttpTransport.URL_CONNECTION})
+    public String transport;
+
+    private VesselStandInServer server;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new VesselStandInServer(0);
+        server.start();
+        file = BenchmarkSupport.createFile(sizeMb * 1024L * 1024L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        BenchmarkSupport.delete(file);
+    }
+
+    private VesselResponse upload() throws IOException, ParseException {
+        VesselUploader.UploadRequest ur = BenchmarkSupport.createRequest(file);
+        ur.apiPath = server.getApiPath();
+        ur.chunkSize = chunkSizeMb * 1024L * 1024L;
+        ur.transport = transport;
+        VesselResponse response = new VesselUploader().upload(ur);
+        if (response == null || !response.success) {
+            throw new IOException("Upload failed: " + response);
+        }
+        return response;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public VesselResponse upload1() throws IOException, ParseException {
+        return upload();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public VesselResponse upload8() throws IOException, ParseException {
+        return upload();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public VesselResponse upload32() throws IOException, ParseException {
+        return upload();
+    }
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Load test: runs many uploads at once through the {@link UploadScheduler} and
+ * {@link VesselUploader}, the path a build takes, against a {@link VesselStandInServer}
+ * (or any endpoint) and reports latency percentiles.
+ *
+ * <p>Options as <tt>--name=value</tt>: uploads (100), concurrency (8), per-key (2),
+ * keys (4), size in KB (1024), chunk-size in KB (0), parallel-chunks (1), transport
+ * (commons or urlconnection), attempts per request (4), timeout per upload in
+ * seconds (0, none), api to target another endpoint, plus the fault options of the
+ * stand-in.
+ */
+public class VesselLoadDriver {
+
+    private final int uploads;
+    private final int keys;
+    private final VesselUploader.UploadRequest template;
+
+    VesselLoadDriver(int uploads, int keys, VesselUploader.UploadRequest template) {
+        this.uploads = uploads;
+        this.keys = keys;
+        this.template = template;
+    }
+
+    /**
+     * Latency of one upload, negative if it failed.
+     */
+    private class Upload implements Callable<Long> {
+        private final int index;
+        private final Map<String, Integer> failures;
+
+        Upload(int index, Map<String, Integer> failures) {
+            this.index = index;
+            this.failures = failures;
+        }
+
+        public Long call() {
+            VesselUploader.UploadRequest ur = CommandLineSupport.copy(template);
+            ur.apiKey = "load-" + (index % keys);
+            ur.releaseNotes = "Load test upload #" + index;
+            long started = System.nanoTime();
+            String failure;
+            try {
+                VesselResponse response = new VesselUploader().upload(ur);
+                if (response != null && response.success) {
+                    return (System.nanoTime() - started) / 1000000;
+                }
+                failure = response == null ? "no answer" : "rejected " + response.fieldErrors.keySet();
+            } catch (UploadException e) {
+                failure = "HTTP " + e.getStatusCode();
+            } catch (Exception e) {
+                failure = e.getClass().getSimpleName();
+            }
+            synchronized (failures) {
+                Integer count = failures.get(failure);
+                failures.put(failure, count == null ? 1 : count + 1);
+            }
+            return -1L;
+        }
+    }
+
+    void run(PrintStream out) throws InterruptedException {
+        Map<String, Integer> failures = new TreeMap<String, Integer>();
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        long started = System.nanoTime();
+        for (int i = 0; i < uploads; i++) {
+            futures.add(UploadScheduler.get().submit("load-" + (i % keys), new Upload(i, failures)));
+        }
+        List<Long> latencies = new ArrayList<Long>();
+        for (Future<Long> future : futures) {
+            try {
+                long latency = future.get();
+                if (latency >= 0) {
+                    latencies.add(latency);
+                }
+            } catch (ExecutionException e) {
+                // Upload catches everything
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        long elapsed = (System.nanoTime() - started) / 1000000;
+
+        Collections.sort(latencies);
+        out.println(String.format(Locale.ENGLISH, "%d uploads in %.1f s, %d succeeded, %.2f uploads/s",
+                uploads, elapsed / 1000.0, latencies.size(), latencies.size() * 1000.0 / Math.max(1, elapsed)));
+        if (!latencies.isEmpty()) {
+            out.println(String.format(Locale.ENGLISH, "latency ms: p50 %d, p90 %d, p99 %d, max %d",
+                    CommandLineSupport.percentile(latencies, 50), CommandLineSupport.percentile(latencies, 90),
+                    CommandLineSupport.percentile(latencies, 99),
+                    latencies.get(latencies.size() - 1)));
+        }
+        for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+            out.println("failed: " + failure.getKey() + " x " + failure.getValue());
+        }
+    }
+
+    private static File createArtifact(long size) throws IOException {
+        File file = File.createTempFile("vessel-load", ".apk");
+        file.deleteOnExit();
+        Random random = new Random();
+        byte [] buffer = new byte[64 * 1024];
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int)Math.min(buffer.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLineSupport.parseOptions(args);
+        int uploads = CommandLineSupport.getInt(options, "uploads", 100);
+        int concurrency = CommandLineSupport.getInt(options, "concurrency", 8);
+        int perKey = CommandLineSupport.getInt(options, "per-key", 2);
+        int keys = CommandLineSupport.getInt(options, "keys", 4);
+        long size = CommandLineSupport.getInt(options, "size", 1024) * 1024L;
+        long chunkSize = CommandLineSupport.getInt(options, "chunk-size", 0) * 1024L;
+        int parallelChunks = CommandLineSupport.getInt(options, "parallel-chunks", 1);
+        String transport = options.remove("transport");
+        int attempts = CommandLineSupport.getInt(options, "attempts", 4);
+        int timeout = CommandLineSupport.getInt(options, "timeout", 0);
+        String api = options.remove("api");
+
+        VesselStandInServer server = null;
+        if (api == null) {
+            server = new VesselStandInServer(0);
+            options = VesselStandInServer.configure(server, options);
+            server.start();
+            api = server.getApiPath();
+        }
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+
+        VesselUploader.UploadRequest template = new VesselUploader.UploadRequest();
+        template.file = createArtifact(size);
+        template.replace = false;
+        template.apiPath = api;
+        template.chunkSize = chunkSize;
+        template.parallelChunks = parallelChunks;
+        template.transport = transport;
+        template.maxAttempts = Math.max(1, attempts);
+        template.timeout = timeout * 1000L;
+
+        UploadScheduler.get().setLimits(concurrency, perKey);
+        System.out.println("Uploading " + uploads + " x " + size / 1024 + " KB to " + api
+                + ", " + concurrency + " at once, " + perKey + " per key, "
+                + (transport != null ? transport : HttpTransport.COMMONS) + " transport");
+        try {
+            new VesselLoadDriver(uploads, keys, template).run(System.out);
+        } finally {
+            template.file.delete();
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads many archived artifacts from the command line, for backfills and
+ * migrations. Runs them through the {@link UploadScheduler} and {@link VesselUploader}
+ * with the plugin's transports, retries and timeouts, and prints throughput and
+ * latency percentiles at the end.
+ *
+ * <p>The artifacts are the lines of a manifest, <tt>path[TAB api key[TAB release
+ * notes[TAB user groups[TAB users]]]]</tt> with paths relative to the manifest, or
+ * every .apk and .ipa below a directory. Each upload that succeeds is appended to a
+ * journal; a run with the same journal skips what it lists, so an interrupted run
+ * picks up where it stopped.
+ *
+ * <p>Options as <tt>--name=value</tt>: manifest or dir, journal (vessel-bulk.journal),
+ * api-key, notes (the file name), user-groups and users as defaults for the
+ * manifest, replace, parallel (4), per-key (2), chunk-size in KB (0),
+ * parallel-chunks (1), transport (commons or urlconnection), attempts per request
+ * (4), timeout per upload in minutes (60), connect-timeout and read-timeout in
+ * seconds, api with comma separated endpoints tried in order, proxy-host,
+ * proxy-port, proxy-user and proxy-pass.
+ */
+public class VesselBulkUploader {
+
+    static final String DEFAULT_JOURNAL = "vessel-bulk.journal";
+
+    /**
+     * One artifact to upload.
+     */
+    static class Entry {
+        final File file;
+        final String apiKey;
+        final String releaseNotes;
+        final String userGroups;
+        final String users;
+
+        Entry(File file, String apiKey, String releaseNotes, String userGroups, String users) {
+            this.file = file;
+            this.apiKey = apiKey;
+            this.releaseNotes = releaseNotes;
+            this.userGroups = userGroups;
+            this.users = users;
+        }
+
+        /**
+         * What the journal knows the upload by, a changed file is uploaded again.
+         */
+        String getId() {
+            return apiKey + "\t" + file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified();
+        }
+    }
+
+    private final List<Entry> entries;
+    private final File journal;
+    private final VesselUploader.UploadRequest template;
+
+    // Guarded by this
+    private final Map<String, Integer> failures = new TreeMap<String, Integer>();
+    private final List<Long> latencies = new ArrayList<Long>();
+    private long bytes;
+
+    VesselBulkUploader(List<Entry> entries, File journal, VesselUploader.UploadRequest template) {
+        this.entries = entries;
+        this.journal = journal;
+        this.template = template;
+    }
+
+    /**
+     * Reads a manifest, columns left out or empty take the defaults.
+     */
+    static List<Entry> readManifest(File manifest, String apiKey, String releaseNotes, String userGroups, String users) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().length() == 0 || line.trim().startsWith("#")) {
+                    continue;
+                }
+                String [] columns = line.split("\t");
+                File file = new File(columns[0].trim());
+                if (!file.isAbsolute()) {
+                    file = new File(manifest.getAbsoluteFile().getParentFile(), columns[0].trim());
+                }
+                Entry entry = new Entry(file, getColumn(columns, 1, apiKey), getColumn(columns, 2, releaseNotes),
+                        getColumn(columns, 3, userGroups), getColumn(columns, 4, users));
+                if (entry.apiKey == null) {
+                    throw new IllegalArgumentException(manifest + ":" + number + " has no API key and there is no --api-key");
+                }
+                entries.add(entry);
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    private static String getColumn(String [] columns, int index, String defaultValue) {
+        if (index >= columns.length || columns[index].trim().length() == 0) {
+            return defaultValue;
+        }
+        return columns[index].trim();
+    }
+
+    /**
+     * Every .apk and .ipa below the directory, by path.
+     */
+    static List<Entry> scanDirectory(File dir, String apiKey, String releaseNotes, String userGroups, String users) {
+        if (apiKey == null) {
+            throw new IllegalArgumentException("--dir needs an --api-key");
+        }
+        List<File> files = new ArrayList<File>();
+        collect(dir, files);
+        Collections.sort(files);
+        List<Entry> entries = new ArrayList<Entry>();
+        for (File file : files) {
+            entries.add(new Entry(file, apiKey, releaseNotes, userGroups, users));
+        }
+        return entries;
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File [] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName().toLowerCase(Locale.ENGLISH);
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (name.endsWith(".apk") || name.endsWith(".ipa")) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Ids of the uploads a former run finished.
+     */
+    static Set<String> readJournal(File journal) throws IOException {
+        Set<String> done = new HashSet<String>();
+        if (!journal.exists()) {
+            return done;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // id, then the download url
+                int end = line.lastIndexOf('\t');
+                if (end > 0) {
+                    done.add(line.substring(0, end));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return done;
+    }
+
+    private class Upload implements Callable<Void> {
+        private final Entry entry;
+        private final Writer out;
+        private final PrintStream log;
+
+        Upload(Entry entry, Writer out, PrintStream log) {
+            this.entry = entry;
+            this.out = out;
+            this.log = log;
+        }
+
+        public Void call() {
+            VesselUploader.UploadRequest ur = CommandLineSupport.copy(template);
+            ur.file = entry.file;
+            ur.apiKey = entry.apiKey;
+            ur.releaseNotes = entry.releaseNotes != null ? entry.releaseNotes : entry.file.getName();
+            ur.userGroups = entry.userGroups;
+            ur.users = entry.users;
+            long started = System.nanoTime();
+            String failure;
+            try {
+                VesselResponse response = new VesselUploader(log).upload(ur);
+                if (response != null && response.success) {
+                    long latency = (System.nanoTime() - started) / 1000000;
+                    done(entry, response.directDownloadUrl, latency);
+                    log.println("Uploaded " + entry.file + " in " + UploadTimings.formatMillis(latency) + ": " + response.directDownloadUrl);
+                    return null;
+                }
+                failure = response == null ? "no answer" : "rejected " + response.fieldErrors;
+            } catch (UploadException e) {
+                failure = "HTTP " + e.getStatusCode();
+            } catch (Exception e) {
+                failure = e.toString();
+            }
+            log.println("Failed " + entry.file + ": " + failure);
+            synchronized (VesselBulkUploader.this) {
+                String reason = failure.length() > 80 ? failure.substring(0, 80) + "..." : failure;
+                Integer count = failures.get(reason);
+                failures.put(reason, count == null ? 1 : count + 1);
+            }
+            return null;
+        }
+
+        private void done(Entry entry, String downloadUrl, long latency) throws IOException {
+            synchronized (VesselBulkUploader.this) {
+                latencies.add(latency);
+                bytes += entry.file.length();
+                // Flushed at once, a killed run loses nothing it finished
+                out.write(entry.getId() + "\t" + downloadUrl + "\n");
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * @return whether every upload succeeded
+     */
+    boolean run(PrintStream log) throws IOException, InterruptedException {
+        Set<String> done = readJournal(journal);
+        List<Entry> pending = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (!done.contains(entry.getId())) {
+                pending.add(entry);
+            }
+        }
+        log.println(entries.size() + " artifacts, " + (entries.size() - pending.size()) + " already in " + journal + ", uploading " + pending.size());
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(journal, true), "UTF-8");
+        long started = System.nanoTime();
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (Entry entry : pending) {
+                futures.add(UploadScheduler.get().submit(entry.apiKey, new Upload(entry, out, log)));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Upload catches everything
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        long elapsed = (System.nanoTime() - started) / 1000000;
+
+        synchronized (this) {
+            Collections.sort(latencies);
+            log.println(String.format(Locale.ENGLISH, "%d uploaded, %d failed, %d skipped in %.1f s: %.2f uploads/s, %.2f MB/s",
+                    latencies.size(), pending.size() - latencies.size(), entries.size() - pending.size(), elapsed / 1000.0,
+                    latencies.size() * 1000.0 / Math.max(1, elapsed), bytes / 1024.0 / 1024.0 * 1000.0 / Math.max(1, elapsed)));
+            if (!latencies.isEmpty()) {
+                log.println(String.format(Locale.ENGLISH, "latency ms: p50 %d, p90 %d, p99 %d, max %d",
+                        CommandLineSupport.percentile(latencies, 50), CommandLineSupport.percentile(latencies, 90),
+                        CommandLineSupport.percentile(latencies, 99), latencies.get(latencies.size() - 1)));
+            }
+            for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+                log.println("failed: " + failure.getKey() + " x " + failure.getValue());
+            }
+            return failures.isEmpty();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLineSupport.parseOptions(args);
+        String manifest = options.remove("manifest");
+        String dir = options.remove("dir");
+        String journal = options.remove("journal");
+        String apiKey = options.remove("api-key");
+        String notes = options.remove("notes");
+        String userGroups = options.remove("user-groups");
+        String users = options.remove("users");
+        boolean replace = Boolean.parseBoolean(options.remove("replace"));
+        int parallel = CommandLineSupport.getInt(options, "parallel", 4);
+        int perKey = CommandLineSupport.getInt(options, "per-key", 2);
+        long chunkSize = CommandLineSupport.getInt(options, "chunk-size", 0) * 1024L;
+        int parallelChunks = CommandLineSupport.getInt(options, "parallel-chunks", 1);
+        String transport = options.remove("transport");
+        int attempts = CommandLineSupport.getInt(options, "attempts", 4);
+        int timeout = CommandLineSupport.getInt(options, "timeout", 60);
+        int connectTimeout = CommandLineSupport.getInt(options, "connect-timeout", 30);
+        int readTimeout = CommandLineSupport.getInt(options, "read-timeout", 300);
+        String api = options.remove("api");
+        String proxyHost = options.remove("proxy-host");
+        int proxyPort = CommandLineSupport.getInt(options, "proxy-port", 0);
+        String proxyUser = options.remove("proxy-user");
+        String proxyPass = options.remove("proxy-pass");
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+        if ((manifest == null) == (dir == null)) {
+            throw new IllegalArgumentException("Either --manifest or --dir is needed");
+        }
+
+        List<Entry> entries = manifest != null
+                ? readManifest(new File(manifest), apiKey, notes, userGroups, users)
+                : scanDirectory(new File(dir), apiKey, notes, userGroups, users);
+
+        VesselUploader.UploadRequest template = new VesselUploader.UploadRequest();
+        template.replace = replace;
+        if (api != null) {
+            List<String> endpoints = Arrays.asList(api.split(","));
+            template.apiPath = endpoints.get(0).trim();
+            template.fallbackPaths = new ArrayList<String>();
+            for (String endpoint : endpoints.subList(1, endpoints.size())) {
+                template.fallbackPaths.add(endpoint.trim());
+            }
+        }
+        template.proxyHost = proxyHost;
+        template.proxyPort = proxyPort;
+        template.proxyUser = proxyUser;
+        template.proxyPass = proxyPass;
+        template.chunkSize = chunkSize;
+        template.parallelChunks = parallelChunks;
+        template.transport = transport;
+        template.connectTimeout = connectTimeout * 1000;
+        template.readTimeout = readTimeout * 1000;
+        template.maxAttempts = Math.max(1, attempts);
+        template.timeout = timeout * 60 * 1000L;
+
+        UploadScheduler.get().setLimits(parallel, perKey);
+        boolean success = new VesselBulkUploader(entries, new File(journal != null ? journal : DEFAULT_JOURNAL), template).run(System.out);
+        System.exit(success ? 0 : 1);
+    }
+}
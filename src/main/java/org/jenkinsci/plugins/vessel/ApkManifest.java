@@ -0,0 +1,152 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the version from the compiled <tt>AndroidManifest.xml</tt> of an APK, the
+ * Android binary XML format: a string pool, a map from attribute names to
+ * resource ids and the element tree. Only the root element is looked at.
+ */
+class ApkManifest {
+
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+
+    // android:versionCode and android:versionName
+    private static final int VERSION_CODE_ID = 0x0101021b;
+    private static final int VERSION_NAME_ID = 0x0101021c;
+
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_INT_DEC = 0x10;
+    private static final int TYPE_INT_HEX = 0x11;
+
+    private static final int UTF8_FLAG = 1 << 8;
+
+    String versionCode;
+    String versionName;
+
+    static ApkManifest parse(byte [] xml) throws IOException {
+        try {
+            return parse(ByteBuffer.wrap(xml).order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt binary XML", e);
+        }
+    }
+
+    private static ApkManifest parse(ByteBuffer buf) throws IOException {
+        if (buf.limit() < 8 || (buf.getShort(0) & 0xffff) != RES_XML_TYPE) {
+            throw new IOException("Not a binary XML file");
+        }
+        String [] strings = new String[0];
+        int [] resourceIds = new int[0];
+        int position = buf.getShort(2) & 0xffff;
+        while (position + 8 <= buf.limit()) {
+            int type = buf.getShort(position) & 0xffff;
+            int headerSize = buf.getShort(position + 2) & 0xffff;
+            int size = buf.getInt(position + 4);
+            if (size < 8 || position + size > buf.limit()) {
+                throw new IOException("Corrupt binary XML");
+            }
+            if (type == RES_STRING_POOL_TYPE) {
+                strings = readStringPool(buf, position);
+            } else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+                resourceIds = new int[(size - headerSize) / 4];
+                for (int i = 0; i < resourceIds.length; i++) {
+                    resourceIds[i] = buf.getInt(position + headerSize + 4 * i);
+                }
+            } else if (type == RES_XML_START_ELEMENT_TYPE) {
+                // The root element, <manifest>
+                return readRoot(buf, position + headerSize, strings, resourceIds);
+            }
+            position += size;
+        }
+        throw new IOException("No root element");
+    }
+
+    private static ApkManifest readRoot(ByteBuffer buf, int element, String [] strings, int [] resourceIds) {
+        ApkManifest manifest = new ApkManifest();
+        int attributes = element + (buf.getShort(element + 8) & 0xffff);
+        int attributeSize = buf.getShort(element + 10) & 0xffff;
+        int count = buf.getShort(element + 12) & 0xffff;
+        for (int i = 0; i < count; i++) {
+            int at = attributes + i * attributeSize;
+            int name = buf.getInt(at + 4);
+            int rawValue = buf.getInt(at + 8);
+            int dataType = buf.get(at + 15) & 0xff;
+            int data = buf.getInt(at + 16);
+
+            // Names may be stripped by shrinkers, the resource id is what counts
+            int id = name >= 0 && name < resourceIds.length ? resourceIds[name] : 0;
+            String attribute = get(strings, name);
+            String value;
+            if (dataType == TYPE_STRING) {
+                value = get(strings, data);
+            } else if (dataType == TYPE_INT_DEC || dataType == TYPE_INT_HEX) {
+                value = String.valueOf(data);
+            } else {
+                // A reference into resources.arsc, not resolved
+                value = get(strings, rawValue);
+            }
+            if (id == VERSION_CODE_ID || (id == 0 && "versionCode".equals(attribute))) {
+                manifest.versionCode = value;
+            } else if (id == VERSION_NAME_ID || (id == 0 && "versionName".equals(attribute))) {
+                manifest.versionName = value;
+            }
+        }
+        return manifest;
+    }
+
+    private static String get(String [] strings, int index) {
+        return index >= 0 && index < strings.length ? strings[index] : null;
+    }
+
+    private static String [] readStringPool(ByteBuffer buf, int pool) throws UnsupportedEncodingException {
+        int headerSize = buf.getShort(pool + 2) & 0xffff;
+        int count = buf.getInt(pool + 8);
+        boolean utf8 = (buf.getInt(pool + 16) & UTF8_FLAG) != 0;
+        int stringsStart = pool + buf.getInt(pool + 20);
+        String [] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int at = stringsStart + buf.getInt(pool + headerSize + 4 * i);
+            strings[i] = utf8 ? readUtf8(buf, at) : readUtf16(buf, at);
+        }
+        return strings;
+    }
+
+    private static String readUtf8(ByteBuffer buf, int at) throws UnsupportedEncodingException {
+        // Length in UTF-16 units, then in bytes, each one or two bytes long
+        at += (buf.get(at) & 0x80) != 0 ? 2 : 1;
+        int length = buf.get(at) & 0xff;
+        if ((length & 0x80) != 0) {
+            length = ((length & 0x7f) << 8) | (buf.get(at + 1) & 0xff);
+            at += 2;
+        } else {
+            at += 1;
+        }
+        byte [] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buf.get(at + i);
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String readUtf16(ByteBuffer buf, int at) {
+        int length = buf.getShort(at) & 0xffff;
+        if ((length & 0x8000) != 0) {
+            length = ((length & 0x7fff) << 16) | (buf.getShort(at + 2) & 0xffff);
+            at += 4;
+        } else {
+            at += 2;
+        }
+        char [] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buf.getChar(at + 2 * i);
+        }
+        return new String(chars);
+    }
+}
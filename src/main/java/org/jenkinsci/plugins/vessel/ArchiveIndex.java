@@ -0,0 +1,181 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Where the compressed data of each entry of an APK or IPA sits, with its
+ * SHA-256. Two archives whose entries share data can be rebuilt from each
+ * other by copying those byte ranges, everything else (headers, signing
+ * block, central directory) travels as is.
+ */
+public class ArchiveIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+        final long offset;
+        final long length;
+        String sha256;
+
+        Entry(String name, long offset, long length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    final String sha256;
+    final long size;
+    // By offset
+    final List<Entry> entries;
+
+    private ArchiveIndex(String sha256, long size, List<Entry> entries) {
+        this.sha256 = sha256;
+        this.size = size;
+        this.entries = entries;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * Reads the central directory and digests the file once.
+     * @return null if the file is not a zip archive this understands, ZIP64 included
+     */
+    static ArchiveIndex scan(File file) throws IOException {
+        List<Entry> entries = readCentralDirectory(file);
+        if (entries == null) {
+            return null;
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.offset < b.offset ? -1 : a.offset > b.offset ? 1 : 0;
+            }
+        });
+
+        MessageDigest whole = ArtifactInfo.newSha256();
+        MessageDigest part = ArtifactInfo.newSha256();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte [] buffer = new byte[64 * 1024];
+            long position = 0;
+            int next = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                whole.update(buffer, 0, read);
+                long end = position + read;
+                // Feed the entries overlapping this buffer, several small ones may end in it
+                while (next < entries.size()) {
+                    Entry entry = entries.get(next);
+                    long from = Math.max(position, entry.offset);
+                    long to = Math.min(end, entry.offset + entry.length);
+                    if (from < to) {
+                        part.update(buffer, (int)(from - position), (int)(to - from));
+                    }
+                    if (entry.offset + entry.length > end) {
+                        break;
+                    }
+                    entry.sha256 = ArtifactInfo.toHex(part.digest());
+                    next++;
+                }
+                position = end;
+            }
+            if (next < entries.size()) {
+                // Entries beyond the end of the file
+                return null;
+            }
+            return new ArchiveIndex(ArtifactInfo.toHex(whole.digest()), position, entries);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<Entry> readCentralDirectory(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            // The end record sits within the last 64 KB, behind an optional comment
+            int tail = (int)Math.min(length, 22 + 0xffff);
+            byte [] end = new byte[tail];
+            raf.seek(length - tail);
+            raf.readFully(end);
+            int at = -1;
+            for (int i = tail - 22; i >= 0; i--) {
+                if (readInt(end, i) == END_OF_CENTRAL_DIRECTORY) {
+                    at = i;
+                    break;
+                }
+            }
+            if (at < 0) {
+                return null;
+            }
+            int count = readShort(end, at + 10);
+            long directorySize = readInt(end, at + 12) & 0xffffffffL;
+            long directoryOffset = readInt(end, at + 16) & 0xffffffffL;
+            if (count == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL
+                    || directoryOffset + directorySize > length) {
+                return null;
+            }
+
+            byte [] directory = new byte[(int)directorySize];
+            raf.seek(directoryOffset);
+            raf.readFully(directory);
+            List<Entry> entries = new ArrayList<Entry>(count);
+            byte [] local = new byte[30];
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                if (position + 46 > directory.length || readInt(directory, position) != CENTRAL_HEADER) {
+                    return null;
+                }
+                long compressedSize = readInt(directory, position + 20) & 0xffffffffL;
+                int nameLength = readShort(directory, position + 28);
+                int extraLength = readShort(directory, position + 30);
+                int commentLength = readShort(directory, position + 32);
+                long localOffset = readInt(directory, position + 42) & 0xffffffffL;
+                if (compressedSize == 0xffffffffL || localOffset == 0xffffffffL) {
+                    return null;
+                }
+                String name = new String(directory, position + 46, nameLength, "UTF-8");
+
+                // The local header has its own extra field length
+                raf.seek(localOffset);
+                raf.readFully(local);
+                if (readInt(local, 0) != LOCAL_HEADER) {
+                    return null;
+                }
+                long dataOffset = localOffset + 30 + readShort(local, 26) + readShort(local, 28);
+                entries.add(new Entry(name, dataOffset, compressedSize));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return entries;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int readShort(byte [] b, int at) {
+        return (b[at] & 0xff) | (b[at + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte [] b, int at) {
+        return readShort(b, at) | readShort(b, at + 2) << 16;
+    }
+}
@@ -0,0 +1,100 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * What we know about an artifact before uploading it, gathered on the node
+ * that holds it.
+ */
+public class ArtifactInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final long size;
+    private final String sha256;
+
+    public ArtifactInfo(String path, long size, String sha256) {
+        this.path = path;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Absolute path on the node holding the workspace.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte [] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    static String sha256(String text) {
+        try {
+            return toHex(newSha256().digest(text.getBytes("UTF-8")));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte [] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digests the artifact, reading the file once.
+     */
+    public static final class Inspect extends MasterToSlaveFileCallable<ArtifactInfo> {
+
+        private static final long serialVersionUID = 1L;
+
+        public ArtifactInfo invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+            return new ArtifactInfo(file.getAbsolutePath(), file.length(), sha256(file));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * Multipart body of a single request upload: text fields and one file. The framing
+ * is rendered up front so the exact Content-Length is known and the body is never
+ * chunked, the file is read and written in large slices instead of the small
+ * buffer copies of {@link org.apache.commons.httpclient.methods.multipart.FilePart}.
+ *
+ * <p>commons-httpclient hands entities a stream, not the socket channel, so the file
+ * cannot go out through {@link FileChannel#transferTo}; one copy into the slice
+ * buffer is the least this API allows, over plain and TLS connections alike. The
+ * file is not mapped: the bytes would be copied into the slice all the same, and a
+ * mapping of a file truncated meanwhile faults instead of failing the read.
+ */
+class ArtifactRequestEntity implements RequestEntity {
+
+    /** Bytes written to the connection at once. */
+    static final int SLICE = 256 * 1024;
+
+    private static final byte [] CRLF = {'\r', '\n'};
+
+    private final String boundary;
+    private final File file;
+    private final long fileLength;
+    private final byte [] head;
+    private final byte [] tail;
+
+    /**
+     * @param fields form field names and values, in pairs
+     */
+    ArtifactRequestEntity(String [] fields, String fileField, File file) throws IOException {
+        this.boundary = createBoundary();
+        this.file = file;
+        this.fileLength = file.length();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < fields.length; i += 2) {
+            writeAscii(out, "--" + boundary + "\r\n");
+            writeAscii(out, "Content-Disposition: form-data; name=\"" + fields[i] + "\"\r\n");
+            writeAscii(out, "Content-Type: text/plain; charset=UTF-8\r\n");
+            writeAscii(out, "Content-Transfer-Encoding: 8bit\r\n\r\n");
+            out.write(fields[i + 1].getBytes("UTF-8"));
+            out.write(CRLF);
+        }
+        writeAscii(out, "--" + boundary + "\r\n");
+        out.write(("Content-Disposition: form-data; name=\"" + fileField + "\"; filename=\"" + file.getName() + "\"\r\n").getBytes("UTF-8"));
+        writeAscii(out, "Content-Type: application/octet-stream\r\n");
+        writeAscii(out, "Content-Transfer-Encoding: binary\r\n\r\n");
+        head = out.toByteArray();
+        tail = ("\r\n--" + boundary + "--\r\n").getBytes("US-ASCII");
+    }
+
+    private static String createBoundary() {
+        char [] chars = "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+        Random random = new Random();
+        StringBuilder boundary = new StringBuilder("----VesselBoundary");
+        for (int i = 0; i < 24; i++) {
+            boundary.append(chars[random.nextInt(chars.length)]);
+        }
+        return boundary.toString();
+    }
+
+    private static void writeAscii(ByteArrayOutputStream out, String text) throws IOException {
+        out.write(text.getBytes("US-ASCII"));
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        out.write(head);
+        writeFile(out);
+        out.write(tail);
+    }
+
+    private void writeFile(OutputStream out) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() < fileLength) {
+                throw new EOFException(file + " shrank during the upload");
+            }
+            byte [] slice = new byte[(int)Math.min(SLICE, Math.max(1, fileLength))];
+            long position = 0;
+            while (position < fileLength) {
+                ByteBuffer buffer = ByteBuffer.wrap(slice, 0, (int)Math.min(slice.length, fileLength - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException(file + " shrank during the upload");
+                }
+                out.write(slice, 0, read);
+                position += read;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public long getContentLength() {
+        return head.length + fileLength + tail.length;
+    }
+
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+}
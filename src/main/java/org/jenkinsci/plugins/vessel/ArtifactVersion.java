@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The version an APK or IPA declares: versionCode and versionName from the
+ * Android manifest, CFBundleVersion and CFBundleShortVersionString from the
+ * iOS Info.plist. Vessel refuses a version code it already has.
+ */
+public class ArtifactVersion implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern INFO_PLIST = Pattern.compile("Payload/[^/]+\\.app/Info\\.plist");
+
+    private final String versionCode;
+    private final String versionName;
+
+    public ArtifactVersion(String versionCode, String versionName) {
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+    }
+
+    public String getVersionCode() {
+        return versionCode;
+    }
+
+    public String getVersionName() {
+        return versionName;
+    }
+
+    @Override
+    public String toString() {
+        return versionName != null ? versionCode + " (" + versionName + ")" : versionCode;
+    }
+
+    /**
+     * Orders version codes, numerically per dot separated component.
+     * Components that are not numbers compare as text.
+     */
+    static int compare(String a, String b) {
+        String [] left = a.trim().split("\\.");
+        String [] right = b.trim().split("\\.");
+        for (int i = 0; i < Math.max(left.length, right.length); i++) {
+            String l = i < left.length ? left[i] : "0";
+            String r = i < right.length ? right[i] : "0";
+            int order;
+            if (l.matches("\\d+") && r.matches("\\d+")) {
+                l = l.replaceFirst("^0+(?=.)", "");
+                r = r.replaceFirst("^0+(?=.)", "");
+                order = l.length() != r.length() ? l.length() - r.length() : l.compareTo(r);
+            } else {
+                order = l.compareTo(r);
+            }
+            if (order != 0) {
+                return order;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the version on the node holding the artifact.
+     * Answers null for other files and for versions that cannot be read.
+     */
+    public static final class Read extends MasterToSlaveFileCallable<ArtifactVersion> {
+
+        private static final long serialVersionUID = 1L;
+
+        public ArtifactVersion invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+            String name = file.getName().toLowerCase();
+            if (!file.isFile() || !(name.endsWith(".apk") || name.endsWith(".ipa"))) {
+                return null;
+            }
+            ZipFile zip;
+            try {
+                zip = new ZipFile(file);
+            } catch (IOException e) {
+                return null;
+            }
+            try {
+                if (name.endsWith(".apk")) {
+                    ZipEntry entry = zip.getEntry("AndroidManifest.xml");
+                    if (entry == null) {
+                        return null;
+                    }
+                    ApkManifest manifest = ApkManifest.parse(read(zip, entry));
+                    return manifest.versionCode != null ? new ArtifactVersion(manifest.versionCode, manifest.versionName) : null;
+                }
+                for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                    ZipEntry entry = entries.nextElement();
+                    if (INFO_PLIST.matcher(entry.getName()).matches()) {
+                        Map<String, String> plist = InfoPlist.parse(read(zip, entry));
+                        String version = plist.get("CFBundleVersion");
+                        return version != null ? new ArtifactVersion(version, plist.get("CFBundleShortVersionString")) : null;
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                // Not worth failing the upload over
+                return null;
+            } finally {
+                zip.close();
+            }
+        }
+
+        private static byte [] read(ZipFile zip, ZipEntry entry) throws IOException {
+            InputStream in = zip.getInputStream(entry);
+            try {
+                return IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.TreeSet;
+
+/**
+ * Token bucket shared by every upload on this master, and by the uploads agents
+ * run on its behalf. Waiting uploads are served in weighted fair order: each grant
+ * is tagged with the virtual time the upload would finish it at its share of the
+ * link, the smallest tag goes first. An upload that started early therefore gets
+ * no more than its share once others are waiting, and an idle one saves no credit.
+ */
+public class BandwidthLimiter {
+
+    /** Smallest grant, a stream asks for this much and is leased {@link #capacity()}. */
+    static final int QUANTUM = 64 * 1024;
+
+    private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+    public static BandwidthLimiter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Asks for permission to send bytes. Exported to agents over the channel, so
+     * each call is a round trip to the master.
+     */
+    public interface Throttle {
+        /**
+         * @return bytes that may be sent, at least those asked for
+         */
+        int acquire(int bytes) throws IOException, InterruptedException;
+    }
+
+    private long bytesPerSecond;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    // Tag of the grant last handed out
+    private double virtualTime;
+    private long sequence;
+    private final TreeSet<Waiter> waiting = new TreeSet<Waiter>();
+
+    /**
+     * @param bytesPerSecond 0 lifts the limit, uploads waiting go on at once
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        tokens = Math.min(tokens, capacity());
+        notifyAll();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * One upload, its grants are ordered against those of the others.
+     * @param weight share of the link relative to uploads of weight 1
+     */
+    public Flow open(double weight) {
+        return new Flow(weight);
+    }
+
+    public class Flow implements Throttle {
+        private final double weight;
+        private double finish;
+
+        Flow(double weight) {
+            this.weight = weight > 0 ? weight : 1;
+        }
+
+        public int acquire(int bytes) throws InterruptedIOException {
+            return BandwidthLimiter.this.acquire(this, bytes);
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        final double tag;
+        final long sequence;
+
+        Waiter(double tag, long sequence) {
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Waiter other) {
+            if (tag != other.tag) {
+                return tag < other.tag ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+
+    private synchronized int acquire(Flow flow, int bytes) throws InterruptedIOException {
+        if (bytesPerSecond == 0) {
+            return bytes;
+        }
+        // A tenth of a second at the full rate, agents ask ten times a second at most
+        bytes = (int)Math.max(bytes, Math.min(Integer.MAX_VALUE, capacity()));
+        flow.finish = Math.max(virtualTime, flow.finish) + bytes / flow.weight;
+        Waiter waiter = new Waiter(flow.finish, sequence++);
+        waiting.add(waiter);
+        try {
+            while (bytesPerSecond > 0) {
+                refill();
+                // More than the bucket holds is granted once it is full, the debt delays the next
+                long needed = Math.min(bytes, capacity());
+                if (waiting.first() == waiter) {
+                    if (tokens >= needed) {
+                        tokens -= bytes;
+                        virtualTime = waiter.tag;
+                        return bytes;
+                    }
+                    long millis = (long)Math.ceil((needed - tokens) * 1000 / bytesPerSecond);
+                    wait(Math.max(1, millis));
+                } else {
+                    wait();
+                }
+            }
+            // The limit was lifted
+            return bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+        } finally {
+            waiting.remove(waiter);
+            // The next in line may go now
+            notifyAll();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity(), tokens + (now - refilled) / 1e9 * bytesPerSecond);
+        refilled = now;
+    }
+
+    /**
+     * A tenth of a second worth of bytes, at least one grant.
+     */
+    private long capacity() {
+        return Math.max(QUANTUM, bytesPerSecond / 10);
+    }
+
+    /**
+     * Sends through the throttle, asking for the next lease whenever the last one is spent.
+     */
+    static class ThrottledOutputStream extends FilterOutputStream {
+        private final Throttle throttle;
+        private int allowance;
+
+        ThrottledOutputStream(OutputStream out, Throttle throttle) {
+            super(out);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            take(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int length = take(len);
+                out.write(b, off, length);
+                off += length;
+                len -= length;
+            }
+        }
+
+        private int take(int wanted) throws IOException {
+            if (allowance == 0) {
+                try {
+                    allowance = throttle.acquire(QUANTUM);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+                }
+            }
+            int length = Math.min(wanted, allowance);
+            allowance -= length;
+            return length;
+        }
+    }
+}
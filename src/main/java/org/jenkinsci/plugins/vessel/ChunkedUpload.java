@@ -0,0 +1,385 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Resumable upload of one artifact in fixed size chunks.
+ *
+ * The endpoint protocol, relative to the upload url:
+ * <ul>
+ * <li><tt>POST chunked/</tt> with api_key, filename, size and chunk_size opens a session
+ * and answers <tt>{"upload_id": "...", "chunk_size": n}</tt>. A 404, 405 or 501 means the
+ * endpoint does not support chunking, a session without an id or with a chunk size
+ * below 1 fails the upload.</li>
+ * <li><tt>PUT chunked/{id}/{index}</tt> sends one chunk.</li>
+ * <li><tt>GET chunked/{id}/</tt> answers <tt>{"received": [...]}</tt>, the confirmed chunks.</li>
+ * <li><tt>POST chunked/{id}/complete/</tt> carries the form fields and answers a regular
+ * Vessel response.</li>
+ * </ul>
+ */
+class ChunkedUpload {
+
+    private final URL url;
+    private final VesselUploader.UploadRequest ur;
+    private final PrintStream logger;
+    private final File file;
+
+    private String uploadId;
+    private long chunkSize;
+    private int chunkCount;
+
+    // Chunks acknowledged by the server, and handed to a worker
+    private final BitSet confirmed = new BitSet();
+    private final BitSet taken = new BitSet();
+    private volatile boolean failed;
+    private int retries;
+
+    // Opening the session counts as connection setup, sending the chunks as transfer
+    // and completing as the wait for the server
+    private final UploadTimings timings = new UploadTimings();
+
+    ChunkedUpload(URL url, VesselUploader.UploadRequest ur, PrintStream logger) {
+        this.url = url;
+        this.ur = ur;
+        this.logger = logger;
+        this.file = ur.file;
+        this.chunkSize = ur.chunkSize;
+    }
+
+    /**
+     * Opens the upload session.
+     * @return false if the endpoint does not support chunked uploads
+     */
+    boolean start() throws IOException, ParseException {
+        long started = System.currentTimeMillis();
+        List<Part> parts = new ArrayList<Part>();
+        parts.add(new StringPart("api_key", ur.apiKey));
+        parts.add(new StringPart("filename", file.getName()));
+        parts.add(new StringPart("size", String.valueOf(file.length())));
+        parts.add(new StringPart("chunk_size", String.valueOf(chunkSize)));
+        HttpTransport.Exchange exchange = null;
+        try {
+            exchange = RetryPolicy.send("POST", resolve("chunked/"), VesselUploader.toRequestEntity(parts), ur, logger);
+            int statusCode = exchange.getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_METHOD_NOT_ALLOWED
+                    || statusCode == HttpStatus.SC_NOT_IMPLEMENTED) {
+                return false;
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new UploadException(statusCode, exchange.getResponseBodyAsString(), null);
+            }
+            Map session = readJson(exchange);
+            Object id = session.get("upload_id");
+            if (session.get("chunk_size") instanceof Number) {
+                // The server may round the chunk size
+                chunkSize = ((Number)session.get("chunk_size")).longValue();
+            }
+            if (id == null || id.toString().length() == 0 || chunkSize <= 0) {
+                throw new UploadException(statusCode, "Invalid chunked upload session: " + session, null);
+            }
+            uploadId = id.toString();
+        } finally {
+            if (exchange != null) {
+                exchange.release();
+            }
+            timings.add(UploadTimings.Phase.CONNECT, System.currentTimeMillis() - started);
+        }
+        chunkCount = (int)((file.length() + chunkSize - 1) / chunkSize);
+        log("Uploading " + file.getName() + " in " + chunkCount + " chunks of " + chunkSize + " bytes");
+        return true;
+    }
+
+    VesselResponse upload() throws IOException, ParseException {
+        long started = System.currentTimeMillis();
+        try {
+            sendAll();
+        } finally {
+            timings.add(UploadTimings.Phase.TRANSFER, System.currentTimeMillis() - started);
+            timings.addRetries(getRetries());
+        }
+        return complete();
+    }
+
+    private void sendAll() throws IOException, ParseException {
+        int parallel = Math.max(1, Math.min(ur.parallelChunks, VesselUploader.MAX_CONNECTIONS_PER_ROUTE));
+        if (parallel == 1) {
+            sendChunks();
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(parallel);
+            try {
+                List<Future<Object>> workers = new ArrayList<Future<Object>>();
+                for (int i = 0; i < parallel; i++) {
+                    workers.add(pool.submit(new java.util.concurrent.Callable<Object>() {
+                        public Object call() throws Exception {
+                            sendChunks();
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Object> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException e) {
+                failed = true;
+                throw (InterruptedIOException)new InterruptedIOException("Chunked upload interrupted").initCause(e);
+            } catch (ExecutionException e) {
+                failed = true;
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException)cause;
+                if (cause instanceof ParseException) throw (ParseException)cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                throw new IOException("Chunked upload failed", cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * What the upload cost so far, also when it failed.
+     */
+    UploadTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Number of chunk requests that had to be repeated.
+     */
+    synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Worker loop, takes the next chunk nobody works on until all are sent.
+     */
+    private void sendChunks() throws IOException, ParseException {
+        int index;
+        while (!failed && (index = nextChunk()) >= 0) {
+            try {
+                sendChunk(index);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            } catch (RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    private synchronized int nextChunk() {
+        int index = taken.nextClearBit(0);
+        if (index >= chunkCount) {
+            return -1;
+        }
+        taken.set(index);
+        return index;
+    }
+
+    private void sendChunk(int index) throws IOException, ParseException {
+        long offset = index * chunkSize;
+        long length = Math.min(chunkSize, file.length() - offset);
+        for (int attempt = 1; ; attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Chunked upload interrupted");
+            }
+            VesselUploader.TimedRequestEntity entity = new VesselUploader.TimedRequestEntity(new FileRegionRequestEntity(file, offset, length), ur);
+            HttpTransport.Exchange exchange = null;
+            IOException failure;
+            long retryAfter = 0;
+            try {
+                exchange = VesselUploader.send("PUT", resolve("chunked/" + uploadId + "/" + index), entity, ur);
+                int statusCode = exchange.getStatusCode();
+                if (statusCode == HttpStatus.SC_OK) {
+                    synchronized (this) {
+                        confirmed.set(index);
+                        retries += entity.getRetries();
+                    }
+                    return;
+                }
+                String body = exchange.getResponseBodyAsString();
+                if (statusCode < 500 && statusCode != HttpStatus.SC_REQUEST_TIMEOUT && statusCode != 429) {
+                    // Rejected, sending it again will not help
+                    throw new UploadException(statusCode, body, null);
+                }
+                failure = new IOException("HTTP " + statusCode);
+                retryAfter = RetryPolicy.getRetryAfter(exchange.getResponseHeader("Retry-After"));
+            } catch (IOException e) {
+                if (!RetryPolicy.isNetworkFailure(e)) {
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                if (exchange != null) {
+                    exchange.release();
+                }
+                timings.addBytesSent(entity.getBytes());
+            }
+
+            // Each chunk gets the attempts of the upload
+            if (attempt >= ur.maxAttempts) {
+                throw failure;
+            }
+            synchronized (this) {
+                retries++;
+            }
+            long delay = Math.max(RetryPolicy.getDelay(attempt), retryAfter);
+            if (ur.deadline > 0 && System.currentTimeMillis() + delay > ur.deadline) {
+                throw new RetryPolicy.UploadDeadlineException("Giving up on chunk " + index + " after " + failure.getMessage() + ", no time left to retry");
+            }
+            RetryPolicy.sleep(delay);
+            // The chunk may have arrived even though we lost the answer
+            if (refreshConfirmed() && isConfirmed(index)) {
+                return;
+            }
+            log("Chunk " + index + " failed (" + failure.getMessage() + "), resuming at offset " + getConfirmedOffset());
+        }
+    }
+
+    /**
+     * Asks the server which chunks it holds.
+     * @return false if the status could not be fetched
+     */
+    private boolean refreshConfirmed() {
+        HttpTransport.Exchange exchange = null;
+        try {
+            exchange = VesselUploader.send("GET", resolve("chunked/" + uploadId + "/"), null, ur);
+            if (exchange.getStatusCode() != HttpStatus.SC_OK) {
+                return false;
+            }
+            Object received = readJson(exchange).get("received");
+            if (received instanceof List) {
+                synchronized (this) {
+                    for (Object i : (List)received) {
+                        confirmed.set(((Number)i).intValue());
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (ParseException e) {
+            return false;
+        } finally {
+            if (exchange != null) {
+                exchange.release();
+            }
+        }
+    }
+
+    private synchronized boolean isConfirmed(int index) {
+        return confirmed.get(index);
+    }
+
+    /**
+     * End of the contiguous run of confirmed chunks.
+     */
+    synchronized long getConfirmedOffset() {
+        return Math.min(file.length(), confirmed.nextClearBit(0) * chunkSize);
+    }
+
+    private VesselResponse complete() throws IOException, ParseException {
+        long started = System.currentTimeMillis();
+        VesselUploader.TimedRequestEntity entity = new VesselUploader.TimedRequestEntity(
+                VesselUploader.toRequestEntity(VesselUploader.getFormParts(ur)), ur);
+        HttpTransport.Exchange exchange = null;
+        try {
+            exchange = RetryPolicy.send("POST", resolve("chunked/" + uploadId + "/complete/"), entity, ur, logger);
+            return VesselUploader.readResponse(exchange);
+        } finally {
+            if (exchange != null) {
+                exchange.release();
+            }
+            timings.addBytesSent(entity.getBytes());
+            timings.add(UploadTimings.Phase.SERVER, System.currentTimeMillis() - started);
+        }
+    }
+
+    private URL resolve(String path) throws MalformedURLException {
+        return new URL(url, url.getFile() + path);
+    }
+
+    private static Map readJson(HttpTransport.Exchange exchange) throws IOException, ParseException {
+        Object json = new JSONParser().parse(new InputStreamReader(exchange.getResponseBodyAsStream(), "UTF-8"));
+        if (!(json instanceof Map)) {
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+        }
+        return (Map)json;
+    }
+
+    private void log(String message) {
+        if (logger != null) {
+            logger.println(message);
+        }
+    }
+
+    /**
+     * Streams one region of a file as request body.
+     */
+    static class FileRegionRequestEntity implements RequestEntity {
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        FileRegionRequestEntity(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        public void writeRequest(OutputStream out) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(offset);
+                byte [] buffer = new byte[64 * 1024];
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = raf.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException(file + " shrank during the upload");
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        public long getContentLength() {
+            return length;
+        }
+
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+    }
+}
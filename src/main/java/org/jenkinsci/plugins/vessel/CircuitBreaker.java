@@ -0,0 +1,187 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.Date;
+import java.util.logging.Logger;
+
+/**
+ * Master wide guard against Vessel outages. Once a number of uploads in a row
+ * failed to reach Vessel, at the network level or with a gateway error, further
+ * uploads are refused at once, before their artifact is copied. When the open
+ * time has passed, the next upload first sends a single GET to the endpoint: if
+ * anything answers the uploads go again, otherwise the breaker stays open for
+ * another round. Uploads Vessel answered, even with an error, count as reaching it.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    static final int PROBE_TIMEOUT = 10 * 1000;
+
+    private static final CircuitBreaker INSTANCE = new CircuitBreaker();
+
+    public static CircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private State state = State.CLOSED;
+    private int threshold = 5;
+    private long openMillis = 60 * 1000;
+
+    // Consecutive failures, and what went wrong last
+    private int failures;
+    private String lastFailure;
+    private long openedAt;
+    private long probeAt;
+
+    /**
+     * @param threshold failures in a row that open the breaker, 0 disables it
+     * @param openMillis how long uploads are refused before a probe is sent
+     */
+    public synchronized void configure(int threshold, long openMillis) {
+        this.threshold = Math.max(0, threshold);
+        this.openMillis = Math.max(0, openMillis);
+        if (this.threshold == 0) {
+            state = State.CLOSED;
+            failures = 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Whether an upload may go. An open breaker refuses until its time is up, then
+     * the caller probes the endpoint while everyone else is still refused.
+     * @param probe proxy, transport and endpoint the probe goes through
+     */
+    public boolean allow(VesselUploader.UploadRequest probe, PrintStream logger) {
+        synchronized (this) {
+            if (threshold == 0 || state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.HALF_OPEN || System.currentTimeMillis() < probeAt) {
+                logger.println(getRefusal());
+                return false;
+            }
+            state = State.HALF_OPEN;
+        }
+        logger.println("Checking whether Vessel is reachable again");
+        String failure = probe(probe);
+        synchronized (this) {
+            if (failure == null) {
+                LOGGER.info("Vessel is reachable again, uploads go on");
+                state = State.CLOSED;
+                failures = 0;
+                return true;
+            }
+            lastFailure = failure;
+            open();
+            logger.println(getRefusal());
+            return false;
+        }
+    }
+
+    /**
+     * Sends a GET to the endpoint with short timeouts. With the commons transport the
+     * probe connects through a pool of its own, uploads keep their connect timeout.
+     * @return null if anything but a gateway error answered, else what went wrong
+     */
+    private static String probe(VesselUploader.UploadRequest ur) {
+        VesselUploader.UploadRequest probe = new VesselUploader.UploadRequest();
+        probe.proxyHost = ur.proxyHost;
+        probe.proxyPort = ur.proxyPort;
+        probe.proxyUser = ur.proxyUser;
+        probe.proxyPass = ur.proxyPass;
+        probe.transport = ur.transport;
+        probe.connectTimeout = PROBE_TIMEOUT;
+        probe.readTimeout = PROBE_TIMEOUT;
+        try {
+            URL url = new URL(ur.apiPath != null ? ur.apiPath : VesselUploader.ApiPath);
+            HttpTransport.Exchange exchange = HttpTransport.forName(probe.transport).send("GET", url, null, probe);
+            int statusCode = exchange.getStatusCode();
+            exchange.release();
+            return isGatewayError(statusCode) ? "HTTP " + statusCode : null;
+        } catch (IOException e) {
+            return e.toString();
+        } catch (RuntimeException e) {
+            // Whatever goes wrong, the breaker must not stay half open
+            return e.toString();
+        }
+    }
+
+    /**
+     * An upload Vessel answered.
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * An upload that did not reach Vessel.
+     */
+    public synchronized void recordFailure(String reason) {
+        failures++;
+        lastFailure = reason;
+        if (threshold > 0 && failures >= threshold && state == State.CLOSED) {
+            LOGGER.warning(failures + " Vessel uploads in a row failed, refusing uploads for " + UploadTimings.formatMillis(openMillis) + ": " + reason);
+            open();
+        }
+    }
+
+    /**
+     * Records how an upload ended with an exception. Only network failures count,
+     * interrupts, deadlines and local file errors say nothing about the endpoint.
+     */
+    public void recordFailure(IOException e) {
+        if (isTransportFailure(e)) {
+            recordFailure(e.toString());
+        }
+    }
+
+    static boolean isTransportFailure(IOException e) {
+        return RetryPolicy.isNetworkFailure(e);
+    }
+
+    /**
+     * Answers of a proxy or load balancer that could not reach Vessel.
+     */
+    static boolean isGatewayError(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probeAt = openedAt + openMillis;
+    }
+
+    private String getRefusal() {
+        return "Not uploading to Vessel, " + failures + " uploads in a row failed to reach it (last: " + lastFailure
+                + "). Uploads are retried after " + new Date(probeAt);
+    }
+
+    /**
+     * What the global configuration shows.
+     */
+    public synchronized String getStatus() {
+        if (threshold == 0) {
+            return "Disabled";
+        }
+        switch (state) {
+        case OPEN:
+            return "Open since " + new Date(openedAt) + " after " + failures + " failures in a row, next probe at "
+                    + new Date(probeAt) + ". Last failure: " + lastFailure;
+        case HALF_OPEN:
+            return "Probing the endpoint. Last failure: " + lastFailure;
+        default:
+            return failures == 0 ? "Closed" : "Closed, " + failures + " failures in a row. Last failure: " + lastFailure;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared by the tools that run uploads outside Jenkins, the bulk uploader and
+ * the load driver.
+ */
+final class CommandLineSupport {
+
+    private CommandLineSupport() {
+    }
+
+    /**
+     * Splits <tt>--name=value</tt> arguments, a bare <tt>--name</tt> maps to "true".
+     */
+    static Map<String, String> parseOptions(String [] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+            int at = arg.indexOf('=');
+            options.put(at < 0 ? arg.substring(2) : arg.substring(2, at), at < 0 ? "true" : arg.substring(at + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Takes a whole number option out of the options.
+     */
+    static int getInt(Map<String, String> options, String name, int defaultValue) {
+        String value = options.remove(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " needs a whole number, not " + value);
+        }
+    }
+
+    /**
+     * Nearest rank percentile of sorted values.
+     */
+    static long percentile(List<Long> sorted, int percent) {
+        int rank = (int)Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    /**
+     * A request with the file and connection settings of the template, for one
+     * upload of many.
+     */
+    static VesselUploader.UploadRequest copy(VesselUploader.UploadRequest template) {
+        VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
+        ur.file = template.file;
+        ur.replace = template.replace;
+        ur.apiPath = template.apiPath;
+        ur.fallbackPaths = template.fallbackPaths;
+        ur.proxyHost = template.proxyHost;
+        ur.proxyPort = template.proxyPort;
+        ur.proxyUser = template.proxyUser;
+        ur.proxyPass = template.proxyPass;
+        ur.chunkSize = template.chunkSize;
+        ur.parallelChunks = template.parallelChunks;
+        ur.transport = template.transport;
+        ur.connectTimeout = template.connectTimeout;
+        ur.readTimeout = template.readTimeout;
+        ur.maxAttempts = template.maxAttempts;
+        ur.timeout = template.timeout;
+        return ur;
+    }
+}
@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+
+/**
+ * commons-httpclient 3 on plugin wide pooled clients. Understands proxies with
+ * authentication for plain and TLS targets alike.
+ */
+class CommonsHttpTransport extends HttpTransport {
+
+    // By connect timeout, guarded by this
+    private final Map<Integer, HttpClient> clients = new HashMap<Integer, HttpClient>();
+    private Protocol trustHttps;
+
+    /**
+     * The plugin wide client for a connect timeout. commons-httpclient only takes the
+     * connect timeout from the connection manager, so each timeout gets a pool of its
+     * own, set up once: uploads share one, the short timeout probes another.
+     * The secure protocol is kept out of the global {@link Protocol} registry and
+     * bound per request through the {@link HostConfiguration}, a single socket
+     * factory means TLS sessions are reused.
+     */
+    private synchronized HttpClient getClient(int connectTimeout) throws IOException {
+        HttpClient client = clients.get(connectTimeout);
+        if (client != null) {
+            return client;
+        }
+        if (trustHttps == null) {
+            trustHttps = new Protocol("https", SSLCertificateStore.getSocketFactory(), 443);
+        }
+
+        MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(VesselUploader.MAX_CONNECTIONS_PER_ROUTE);
+        params.setMaxTotalConnections(VesselUploader.MAX_CONNECTIONS);
+        params.setStaleCheckingEnabled(true);
+        params.setConnectionTimeout(connectTimeout);
+        client = new HttpClient(manager);
+        clients.put(connectTimeout, client);
+        return client;
+    }
+
+    /**
+     * Route for a single request: target host bound to our secure protocol, plus the
+     * optional proxy of the request.
+     */
+    private HostConfiguration getHostConfiguration(URL url, VesselUploader.UploadRequest ur) {
+        HostConfiguration config = new HostConfiguration();
+        Protocol protocol = "https".equals(url.getProtocol()) ? trustHttps : Protocol.getProtocol(url.getProtocol());
+        config.setHost(url.getHost(), url.getPort(), protocol);
+        if (ur.proxyHost != null && !ur.proxyHost.isEmpty() && ur.proxyPort > 0) {
+            config.setProxy(ur.proxyHost, ur.proxyPort);
+        }
+        return config;
+    }
+
+    private static HttpState getHttpState(VesselUploader.UploadRequest ur) {
+        HttpState state = new HttpState();
+        if (ur.proxyHost != null && !ur.proxyHost.isEmpty() && ur.proxyPort > 0
+                && ur.proxyUser != null && !ur.proxyUser.isEmpty()) {
+            Credentials cred = new UsernamePasswordCredentials(ur.proxyUser, ur.proxyPass);
+            state.setProxyCredentials(new AuthScope(ur.proxyHost, ur.proxyPort), cred);
+        }
+        return state;
+    }
+
+    @Override
+    public Exchange send(String method, URL url, RequestEntity body, VesselUploader.UploadRequest ur) throws IOException {
+        HttpClient client = getClient(ur.connectTimeout);
+
+        // Relative path, the host comes from the route so our protocol is used
+        final HttpMethodBase request;
+        if ("GET".equals(method)) {
+            request = new GetMethod(url.getFile());
+        } else if ("PUT".equals(method)) {
+            request = new PutMethod(url.getFile());
+        } else if ("POST".equals(method)) {
+            request = new PostMethod(url.getFile());
+        } else {
+            throw new IllegalArgumentException("Unsupported method " + method);
+        }
+        if (body != null) {
+            ((EntityEnclosingMethod)request).setRequestEntity(body);
+        }
+        request.getParams().setSoTimeout(ur.readTimeout);
+
+        final int statusCode;
+        try {
+            statusCode = client.executeMethod(getHostConfiguration(url, ur), request, getHttpState(ur));
+        } catch (IOException e) {
+            request.releaseConnection();
+            throw e;
+        } catch (RuntimeException e) {
+            request.releaseConnection();
+            throw e;
+        }
+        return new Exchange() {
+            @Override
+            public int getStatusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public String getResponseHeader(String name) {
+                Header header = request.getResponseHeader(name);
+                return header != null ? header.getValue() : null;
+            }
+
+            @Override
+            public InputStream getResponseBodyAsStream() throws IOException {
+                return request.getResponseBodyAsStream();
+            }
+
+            @Override
+            public String getResponseBodyAsString() throws IOException {
+                return request.getResponseBodyAsString();
+            }
+
+            @Override
+            public void release() {
+                request.releaseConnection();
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * The {@link ArchiveIndex} of the archive last uploaded per API key, the base
+ * of the next delta upload. Only the index is kept, the archive itself is on
+ * Vessel. One file per key in <tt>$JENKINS_HOME/vessel-delta/</tt>, named after
+ * the SHA-256 of the key.
+ */
+public class DeltaBaseStore {
+
+    private static final Logger LOGGER = Logger.getLogger(DeltaBaseStore.class.getName());
+
+    private static final DeltaBaseStore INSTANCE = new DeltaBaseStore();
+
+    public static DeltaBaseStore get() {
+        return INSTANCE;
+    }
+
+    private static XmlFile getFile(String apiKey) {
+        File dir = new File(Jenkins.getInstance().getRootDir(), "vessel-delta");
+        return new XmlFile(new File(dir, ArtifactInfo.sha256(apiKey) + ".xml"));
+    }
+
+    /**
+     * @return the index of the last upload with this key, or null
+     */
+    public synchronized ArchiveIndex load(String apiKey) {
+        XmlFile file = getFile(apiKey);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return (ArchiveIndex)file.read();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            return null;
+        }
+    }
+
+    public synchronized void record(String apiKey, ArchiveIndex index) {
+        XmlFile file = getFile(apiKey);
+        try {
+            file.write(index);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+}
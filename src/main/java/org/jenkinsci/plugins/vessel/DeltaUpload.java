@@ -0,0 +1,218 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Upload of an archive as the difference to the one uploaded before with the
+ * same API key. Entries whose compressed data the server already has are
+ * copied from its copy, the rest of the file is sent.
+ *
+ * <p><tt>POST delta/</tt>, relative to the upload url, carries the usual form
+ * fields plus <tt>base</tt>, the SHA-256 of the archive the server is to start
+ * from, <tt>manifest</tt> and the part <tt>delta</tt>. The manifest lists how to
+ * build the new file: <tt>["copy", offset, length]</tt> takes bytes of the base,
+ * <tt>["data", length]</tt> the next bytes of the delta part. It also holds the
+ * size and SHA-256 of the result. A 404, 405, 409 or 501 means the endpoint
+ * cannot apply the delta, for instance because it lost the base.
+ *
+ * <p>An endpoint answering 404, 405 or 501 does not know deltas at all. It is not
+ * sent one again for {@link #UNSUPPORTED_MILLIS}, every upload would send the
+ * file twice otherwise.
+ */
+class DeltaUpload {
+
+    static final long UNSUPPORTED_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    // Endpoint url to when it may be sent a delta again, on this JVM
+    private static final Map<String, Long> unsupported = new HashMap<String, Long>();
+
+    private final URL url;
+    private final VesselUploader.UploadRequest ur;
+    private final PrintStream logger;
+    private final UploadTimings timings = new UploadTimings();
+
+    DeltaUpload(URL url, VesselUploader.UploadRequest ur, PrintStream logger) {
+        this.url = url;
+        this.ur = ur;
+        this.logger = logger;
+    }
+
+    /**
+     * @return null if the delta is not worth sending or could not be applied, the
+     *         whole file has to be sent then
+     */
+    VesselResponse upload(ArchiveIndex target) throws IOException, ParseException {
+        if (!isSupported(url)) {
+            return null;
+        }
+        ArchiveIndex base = ur.deltaBase;
+        Map<String, ArchiveIndex.Entry> known = new HashMap<String, ArchiveIndex.Entry>();
+        for (ArchiveIndex.Entry entry : base.entries) {
+            known.put(entry.sha256 + "/" + entry.length, entry);
+        }
+
+        // Everything between copied entry data is sent
+        JSONArray segments = new JSONArray();
+        List<long []> regions = new ArrayList<long []>();
+        long position = 0;
+        long sent = 0;
+        for (ArchiveIndex.Entry entry : target.entries) {
+            ArchiveIndex.Entry match = entry.length > 0 ? known.get(entry.sha256 + "/" + entry.length) : null;
+            if (match == null) {
+                continue;
+            }
+            sent += addData(segments, regions, position, entry.offset - position);
+            segments.add(segment("copy", match.offset, match.length));
+            position = entry.offset + entry.length;
+        }
+        sent += addData(segments, regions, position, target.size - position);
+
+        if (sent * 100 > target.size * ur.deltaThreshold) {
+            log("Delta to the last upload is " + sent * 100 / Math.max(1, target.size) + "% of the file, sending the whole file");
+            return null;
+        }
+        log("Sending " + UploadTimings.formatBytes(sent) + " of " + UploadTimings.formatBytes(target.size) + " as a delta to the last upload");
+
+        JSONObject manifest = new JSONObject();
+        manifest.put("size", target.size);
+        manifest.put("sha256", target.sha256);
+        manifest.put("segments", segments);
+
+        List<Part> parts = VesselUploader.getFormParts(ur);
+        parts.add(0, new StringPart("base", base.sha256));
+        parts.add(1, new StringPart("manifest", manifest.toJSONString()));
+        parts.add(2, new RegionsPart("delta", ur.file, regions, sent));
+        VesselUploader.TimedRequestEntity entity = new VesselUploader.TimedRequestEntity(VesselUploader.toRequestEntity(parts), ur);
+        long started = System.currentTimeMillis();
+        HttpTransport.Exchange exchange = null;
+        try {
+            exchange = RetryPolicy.send("POST", new URL(url, url.getFile() + "delta/"), entity, ur, logger);
+            int statusCode = exchange.getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_METHOD_NOT_ALLOWED
+                    || statusCode == HttpStatus.SC_NOT_IMPLEMENTED) {
+                log("Vessel endpoint does not support deltas (HTTP " + statusCode + "), sending the whole file");
+                setUnsupported(url);
+                return null;
+            }
+            if (statusCode == HttpStatus.SC_CONFLICT) {
+                log("Vessel endpoint could not apply the delta (HTTP " + statusCode + "), sending the whole file");
+                return null;
+            }
+            return VesselUploader.readResponse(exchange);
+        } finally {
+            if (exchange != null) {
+                exchange.release();
+            }
+            timings.add(entity.toTimings(started, System.currentTimeMillis()));
+        }
+    }
+
+    private static boolean isSupported(URL url) {
+        synchronized (unsupported) {
+            Long until = unsupported.get(url.toString());
+            if (until != null && until <= System.currentTimeMillis()) {
+                unsupported.remove(url.toString());
+                until = null;
+            }
+            return until == null;
+        }
+    }
+
+    private static void setUnsupported(URL url) {
+        synchronized (unsupported) {
+            unsupported.put(url.toString(), System.currentTimeMillis() + UNSUPPORTED_MILLIS);
+        }
+    }
+
+    /**
+     * What the delta cost, also when it was refused or failed.
+     */
+    UploadTimings getTimings() {
+        return timings;
+    }
+
+    private static long addData(JSONArray segments, List<long []> regions, long offset, long length) {
+        if (length <= 0) {
+            return 0;
+        }
+        segments.add(segment("data", length));
+        regions.add(new long [] {offset, length});
+        return length;
+    }
+
+    private static JSONArray segment(String kind, long... values) {
+        JSONArray segment = new JSONArray();
+        segment.add(kind);
+        for (long value : values) {
+            segment.add(value);
+        }
+        return segment;
+    }
+
+    private void log(String message) {
+        if (logger != null) {
+            logger.println(message);
+        }
+    }
+
+    /**
+     * The given byte ranges of a file, one after the other.
+     */
+    static class RegionsPart extends StreamedPart {
+        private final File file;
+        private final List<long []> regions;
+        private final long length;
+
+        RegionsPart(String name, File file, List<long []> regions, long length) {
+            super(name, file.getName() + ".delta", "application/octet-stream");
+            this.file = file;
+            this.regions = regions;
+            this.length = length;
+        }
+
+        @Override
+        protected long lengthOfData() {
+            return length;
+        }
+
+        @Override
+        protected void sendData(OutputStream out) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                byte [] buffer = new byte[64 * 1024];
+                for (long [] region : regions) {
+                    raf.seek(region[0]);
+                    long remaining = region[1];
+                    while (remaining > 0) {
+                        int read = raf.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                        if (read < 0) {
+                            throw new EOFException(file + " shrank during the upload");
+                        }
+                        out.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+
+/**
+ * Measures the Vessel endpoints every few minutes, see {@link EndpointSelector}.
+ * Nothing is measured while a single endpoint is configured.
+ */
+@Extension
+public class EndpointProbe extends AsyncPeriodicWork {
+
+    public EndpointProbe() {
+        super("Vessel endpoint probe");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return 5 * MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        EndpointSelector selector = EndpointSelector.get();
+        if (selector.size() < 2) {
+            return;
+        }
+        selector.measure();
+        listener.getLogger().println(selector.getStatus());
+    }
+}
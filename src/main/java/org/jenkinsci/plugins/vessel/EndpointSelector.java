@@ -0,0 +1,222 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * The Vessel endpoints uploads may go to, fastest first. {@link EndpointProbe}
+ * measures each one now and then: the TCP and TLS handshake, and the round trip
+ * of a GET. Endpoints that answered are ordered by the sum of both, then those
+ * not measured yet in configured order, those that failed last. A failed upload
+ * moves its endpoint back until the next measurement.
+ *
+ * <p>Measurements go straight to the endpoints, jobs with a proxy get the same
+ * order.
+ */
+public class EndpointSelector {
+
+    private static final EndpointSelector INSTANCE = new EndpointSelector();
+
+    public static EndpointSelector get() {
+        return INSTANCE;
+    }
+
+    /**
+     * What was measured of one endpoint.
+     */
+    private static class Endpoint {
+        final String url;
+        // Milliseconds, -1 if not measured
+        long handshakeMillis = -1;
+        long roundTripMillis = -1;
+        boolean failed;
+        String failure;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        long getLatency() {
+            return handshakeMillis + roundTripMillis;
+        }
+
+        int getRank() {
+            return failed ? 2 : handshakeMillis < 0 ? 1 : 0;
+        }
+
+        @Override
+        public String toString() {
+            if (failed) {
+                return url + ": failing, " + failure;
+            }
+            if (handshakeMillis < 0) {
+                return url + ": not measured yet";
+            }
+            return url + ": handshake " + handshakeMillis + " ms, round trip " + roundTripMillis + " ms";
+        }
+    }
+
+    // Guarded by this, in configured order
+    private List<Endpoint> endpoints = Collections.singletonList(new Endpoint(VesselUploader.ApiPath));
+    private String transport;
+
+    /**
+     * @param urls endpoints in order of preference, empty for the Vessel service
+     * @param transport the {@link HttpTransport} measurements go through
+     */
+    public synchronized void configure(List<String> urls, String transport) {
+        this.transport = transport;
+        Map<String, Endpoint> known = new HashMap<String, Endpoint>();
+        for (Endpoint endpoint : endpoints) {
+            known.put(endpoint.url, endpoint);
+        }
+        List<Endpoint> configured = new ArrayList<Endpoint>();
+        for (String url : urls) {
+            Endpoint endpoint = known.get(url);
+            configured.add(endpoint != null ? endpoint : new Endpoint(url));
+        }
+        if (configured.isEmpty()) {
+            configured.add(new Endpoint(VesselUploader.ApiPath));
+        }
+        endpoints = configured;
+    }
+
+    /**
+     * Endpoint urls, the one to try first first.
+     */
+    public synchronized List<String> getOrder() {
+        List<Endpoint> sorted = new ArrayList<Endpoint>(endpoints);
+        // Stable, ties keep the configured order
+        Collections.sort(sorted, new Comparator<Endpoint>() {
+            public int compare(Endpoint a, Endpoint b) {
+                if (a.getRank() != b.getRank()) {
+                    return a.getRank() - b.getRank();
+                }
+                if (a.getRank() != 0 || a.getLatency() == b.getLatency()) {
+                    return 0;
+                }
+                return a.getLatency() < b.getLatency() ? -1 : 1;
+            }
+        });
+        List<String> order = new ArrayList<String>();
+        for (Endpoint endpoint : sorted) {
+            order.add(endpoint.url);
+        }
+        return order;
+    }
+
+    public synchronized int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * An upload to the endpoint failed, it is tried last until measured again.
+     */
+    public synchronized void markFailed(String url, String failure) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.url.equals(url)) {
+                endpoint.failed = true;
+                endpoint.failure = failure;
+            }
+        }
+    }
+
+    /**
+     * Measures every endpoint, one after the other.
+     */
+    public void measure() {
+        List<Endpoint> current;
+        String transport;
+        synchronized (this) {
+            current = new ArrayList<Endpoint>(endpoints);
+            transport = this.transport;
+        }
+        for (Endpoint endpoint : current) {
+            long handshake = -1;
+            long roundTrip = -1;
+            String failure = null;
+            try {
+                URL url = new URL(endpoint.url);
+                handshake = measureHandshake(url);
+                roundTrip = measureRoundTrip(url, transport);
+            } catch (IOException e) {
+                failure = e.toString();
+            } catch (RuntimeException e) {
+                failure = e.toString();
+            }
+            synchronized (this) {
+                endpoint.failed = failure != null;
+                endpoint.failure = failure;
+                endpoint.handshakeMillis = failure != null ? -1 : handshake;
+                endpoint.roundTripMillis = failure != null ? -1 : roundTrip;
+            }
+        }
+    }
+
+    /**
+     * Connects, and for https also completes the TLS handshake.
+     */
+    private static long measureHandshake(URL url) throws IOException {
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        long started = System.nanoTime();
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(url.getHost(), port), CircuitBreaker.PROBE_TIMEOUT);
+            socket.setSoTimeout(CircuitBreaker.PROBE_TIMEOUT);
+            if ("https".equals(url.getProtocol())) {
+                SSLSocket ssl = (SSLSocket)SSLCertificateStore.getSocketFactory().createSocket(socket, url.getHost(), port, true);
+                ssl.startHandshake();
+                ssl.close();
+            }
+        } finally {
+            socket.close();
+        }
+        return (System.nanoTime() - started) / 1000000;
+    }
+
+    /**
+     * Time to the status line of a GET, gateway errors count as failures. With the
+     * commons transport the GET connects through the pool of the probes, uploads
+     * keep their connect timeout.
+     */
+    private static long measureRoundTrip(URL url, String transport) throws IOException {
+        VesselUploader.UploadRequest probe = new VesselUploader.UploadRequest();
+        probe.transport = transport;
+        probe.connectTimeout = CircuitBreaker.PROBE_TIMEOUT;
+        probe.readTimeout = CircuitBreaker.PROBE_TIMEOUT;
+        long started = System.nanoTime();
+        HttpTransport.Exchange exchange = HttpTransport.forName(transport).send("GET", url, null, probe);
+        long millis = (System.nanoTime() - started) / 1000000;
+        int statusCode = exchange.getStatusCode();
+        exchange.release();
+        if (CircuitBreaker.isGatewayError(statusCode)) {
+            throw new IOException("HTTP " + statusCode);
+        }
+        return millis;
+    }
+
+    /**
+     * What the global configuration shows, one line per endpoint in the order used.
+     */
+    public synchronized String getStatus() {
+        StringBuilder status = new StringBuilder();
+        for (String url : getOrder()) {
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.url.equals(url)) {
+                    status.append(endpoint).append('\n');
+                }
+            }
+        }
+        return status.toString().trim();
+    }
+}
@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * Sends the requests of an upload. The uploads only see this class, so the HTTP
+ * engine can be picked per deployment: {@link CommonsHttpTransport}, the default,
+ * or {@link UrlConnectionTransport} on the JDK's own client. Request bodies are
+ * {@link RequestEntity}s with either.
+ */
+public abstract class HttpTransport {
+
+    public static final String COMMONS = "commons";
+    public static final String URL_CONNECTION = "urlconnection";
+
+    private static final HttpTransport commons = new CommonsHttpTransport();
+    private static final HttpTransport urlConnection = new UrlConnectionTransport();
+
+    /**
+     * @param name {@link #COMMONS}, {@link #URL_CONNECTION}, null for the default
+     */
+    public static HttpTransport forName(String name) {
+        if (URL_CONNECTION.equals(name)) {
+            return urlConnection;
+        }
+        return commons;
+    }
+
+    /**
+     * Sends the request and reads the status line and headers. The caller has to
+     * {@link Exchange#release} the exchange.
+     * @param body null for a request without body
+     */
+    public abstract Exchange send(String method, URL url, RequestEntity body, VesselUploader.UploadRequest ur) throws IOException;
+
+    /**
+     * A request whose answer arrived.
+     */
+    public static abstract class Exchange {
+
+        public abstract int getStatusCode();
+
+        /**
+         * @return null if the response has no such header
+         */
+        public abstract String getResponseHeader(String name);
+
+        public abstract InputStream getResponseBodyAsStream() throws IOException;
+
+        public abstract String getResponseBodyAsString() throws IOException;
+
+        /**
+         * Hands the connection back for keep-alive, or closes it.
+         */
+        public abstract void release();
+    }
+}
@@ -0,0 +1,164 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads the string values of the top level dictionary of an <tt>Info.plist</tt>,
+ * in the XML or the binary (<tt>bplist00</tt>) format Xcode builds produce.
+ */
+class InfoPlist {
+
+    static Map<String, String> parse(byte [] data) throws IOException {
+        if (data.length >= 8 && "bplist00".equals(new String(data, 0, 8, "US-ASCII"))) {
+            try {
+                return parseBinary(data);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt binary property list", e);
+            }
+        }
+        return parseXml(data);
+    }
+
+    private static Map<String, String> parseXml(byte [] data) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            builder.setEntityResolver(new EntityResolver() {
+                public InputSource resolveEntity(String publicId, String systemId) {
+                    // Never fetch Apple's DTD
+                    return new InputSource(new StringReader(""));
+                }
+            });
+            document = builder.parse(new ByteArrayInputStream(data));
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Could not read the property list", e);
+        } catch (SAXException e) {
+            throw new IOException("Could not read the property list", e);
+        }
+        Element dict = firstElement(document.getDocumentElement().getFirstChild());
+        if (dict == null || !"dict".equals(dict.getTagName())) {
+            return values;
+        }
+        for (Element key = firstElement(dict.getFirstChild()); key != null; ) {
+            Element value = firstElement(key.getNextSibling());
+            if (value == null) {
+                break;
+            }
+            if ("key".equals(key.getTagName()) && ("string".equals(value.getTagName()) || "integer".equals(value.getTagName()))) {
+                values.put(key.getTextContent(), value.getTextContent().trim());
+            }
+            key = firstElement(value.getNextSibling());
+        }
+        return values;
+    }
+
+    private static Element firstElement(Node node) {
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        return (Element)node;
+    }
+
+    private static Map<String, String> parseBinary(byte [] data) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        int trailer = data.length - 32;
+        int offsetSize = data[trailer + 6] & 0xff;
+        int refSize = data[trailer + 7] & 0xff;
+        int topObject = (int)readInt(data, trailer + 16, 8);
+        int offsetTable = (int)readInt(data, trailer + 24, 8);
+
+        BinaryPlist plist = new BinaryPlist(data, offsetSize, refSize, offsetTable);
+        int dict = plist.offsetOf(topObject);
+        if ((data[dict] & 0xf0) != 0xd0) {
+            return values;
+        }
+        int count = plist.length(dict);
+        int refs = dict + plist.headerLength(dict);
+        for (int i = 0; i < count; i++) {
+            String key = plist.string((int)readInt(data, refs + i * refSize, refSize));
+            String value = plist.string((int)readInt(data, refs + (count + i) * refSize, refSize));
+            if (key != null && value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    private static long readInt(byte [] data, int at, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (data[at + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static class BinaryPlist {
+        final byte [] data;
+        final int offsetSize;
+        final int refSize;
+        final int offsetTable;
+
+        BinaryPlist(byte [] data, int offsetSize, int refSize, int offsetTable) {
+            this.data = data;
+            this.offsetSize = offsetSize;
+            this.refSize = refSize;
+            this.offsetTable = offsetTable;
+        }
+
+        int offsetOf(int object) {
+            return (int)readInt(data, offsetTable + object * offsetSize, offsetSize);
+        }
+
+        /**
+         * Element count in the low nibble of the marker, or in an integer object after it.
+         */
+        int length(int at) {
+            int length = data[at] & 0x0f;
+            if (length != 0x0f) {
+                return length;
+            }
+            return (int)readInt(data, at + 2, 1 << (data[at + 1] & 0x0f));
+        }
+
+        int headerLength(int at) {
+            return (data[at] & 0x0f) != 0x0f ? 1 : 2 + (1 << (data[at + 1] & 0x0f));
+        }
+
+        /**
+         * The object as text if it is a string or an integer, otherwise null.
+         */
+        String string(int object) throws UnsupportedEncodingException {
+            int at = offsetOf(object);
+            int type = data[at] & 0xf0;
+            if (type == 0x10) {
+                return String.valueOf(readInt(data, at + 1, 1 << (data[at] & 0x0f)));
+            }
+            if (type == 0x50) {
+                return new String(data, at + headerLength(at), length(at), "US-ASCII");
+            }
+            if (type == 0x60) {
+                return new String(data, at + headerLength(at), length(at) * 2, "UTF-16BE");
+            }
+            return null;
+        }
+    }
+}
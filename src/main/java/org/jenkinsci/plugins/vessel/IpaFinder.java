@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Looks for an .ipa in the workspace, on the node that holds it. Walks breadth
+ * first so the shallowest match wins, skips directories that never hold one
+ * (VCS metadata, dependency caches, Xcode bundles) and stops at a depth limit.
+ *
+ * @return the path of the match relative to the workspace, or null
+ */
+public class IpaFinder extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final Set<String> PRUNED = new HashSet<String>(Arrays.asList(
+            ".git", ".svn", ".hg", ".gradle", ".idea", "DerivedData", "Pods", "Carthage", "node_modules"));
+
+    static final String [] PRUNED_SUFFIXES = { ".app", ".dSYM", ".framework", ".xcassets", ".xcodeproj", ".xcworkspace", ".bundle" };
+
+    private final int maxDepth;
+    private final boolean newest;
+    private final String cached;
+    private final long notBefore;
+
+    /**
+     * @param maxDepth directory levels below the workspace to look into
+     * @param newest pick the most recently modified match instead of the first one
+     * @param cached where the last build found it, taken without a walk if modified since notBefore
+     */
+    public IpaFinder(int maxDepth, boolean newest, String cached, long notBefore) {
+        this.maxDepth = maxDepth;
+        this.newest = newest;
+        this.cached = cached;
+        this.notBefore = notBefore;
+    }
+
+    public String invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        if (cached != null) {
+            File file = new File(workspace, cached);
+            if (file.isFile() && file.lastModified() >= notBefore) {
+                return cached;
+            }
+        }
+
+        File found = null;
+        ArrayDeque<File> dirs = new ArrayDeque<File>();
+        ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+        dirs.add(workspace);
+        depths.add(0);
+        while (!dirs.isEmpty()) {
+            File dir = dirs.poll();
+            int depth = depths.poll();
+            File [] children = dir.listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                String name = child.getName();
+                if (name.endsWith(".ipa")) {
+                    if (!child.isFile()) {
+                        continue;
+                    }
+                    if (!newest) {
+                        return relativize(workspace, child);
+                    }
+                    if (found == null || child.lastModified() > found.lastModified()) {
+                        found = child;
+                    }
+                } else if (depth < maxDepth && !isPruned(name) && child.isDirectory()) {
+                    dirs.add(child);
+                    depths.add(depth + 1);
+                }
+            }
+        }
+        return found == null ? null : relativize(workspace, found);
+    }
+
+    private static boolean isPruned(String name) {
+        if (PRUNED.contains(name)) {
+            return true;
+        }
+        for (String suffix : PRUNED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relativize(File workspace, File file) {
+        return file.getAbsolutePath().substring(workspace.getAbsolutePath().length() + 1);
+    }
+}
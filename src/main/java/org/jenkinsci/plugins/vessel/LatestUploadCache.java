@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Points every job at its last successful build with a Vessel install link, so
+ * the project page does not have to walk the build history. The pointer is
+ * kept in memory and in <tt>vessel-last-upload</tt> in the job directory, and
+ * moved when builds finish or are deleted.
+ */
+@Extension
+public class LatestUploadCache extends RunListener<Run> {
+
+    private static final Logger LOGGER = Logger.getLogger(LatestUploadCache.class.getName());
+
+    private static final String FILE_NAME = "vessel-last-upload";
+
+    // Build number by job, 0 when the job has no upload
+    private static final Map<String, Integer> LATEST = new ConcurrentHashMap<String, Integer>();
+
+    public LatestUploadCache() {
+        super(Run.class);
+    }
+
+    @Override
+    public void onFinalized(Run build) {
+        uploaded(build);
+    }
+
+    @Override
+    public void onDeleted(Run build) {
+        Job<?,?> project = build.getParent();
+        if (Integer.valueOf(build.getNumber()).equals(LATEST.get(project.getFullName()))) {
+            // Found again on the next page view
+            LATEST.remove(project.getFullName());
+            new File(project.getRootDir(), FILE_NAME).delete();
+        }
+    }
+
+    /**
+     * Moves the pointer to this build if it is done, stable and holds an install link.
+     * Called again when an upload running in the background finishes.
+     */
+    static void uploaded(Run<?,?> build) {
+        if (build.isBuilding() || build.getResult() == null || !build.getResult().isBetterOrEqualTo(Result.SUCCESS)
+                || getInstallLinks(build).isEmpty()) {
+            return;
+        }
+        Job<?,?> project = build.getParent();
+        synchronized (LATEST) {
+            if (build.getNumber() > getLatest(project)) {
+                store(project, build.getNumber());
+            }
+        }
+    }
+
+    /**
+     * The install links of the last stable build that has any.
+     */
+    static List<VesselBuildAction> getLatestInstallLinks(Job<?,?> project) {
+        int number = getLatest(project);
+        if (number > 0) {
+            Run<?,?> build = project.getBuildByNumber(number);
+            if (build != null) {
+                return getInstallLinks(build);
+            }
+            // Gone behind our back
+            synchronized (LATEST) {
+                store(project, scan(project));
+            }
+            return getLatestInstallLinks(project);
+        }
+        return Collections.emptyList();
+    }
+
+    private static int getLatest(Job<?,?> project) {
+        Integer number = LATEST.get(project.getFullName());
+        if (number != null) {
+            return number;
+        }
+        synchronized (LATEST) {
+            number = load(project);
+            if (number == null) {
+                // First look at this job, the history is walked once
+                number = scan(project);
+                store(project, number);
+            } else {
+                LATEST.put(project.getFullName(), number);
+            }
+            return number;
+        }
+    }
+
+    private static int scan(Job<?,?> project) {
+        for (Run<?,?> build = project.getLastSuccessfulBuild(); build != null; build = build.getPreviousSuccessfulBuild()) {
+            if (build.getResult().isBetterOrEqualTo(Result.SUCCESS) && !getInstallLinks(build).isEmpty()) {
+                return build.getNumber();
+            }
+        }
+        return 0;
+    }
+
+    private static List<VesselBuildAction> getInstallLinks(Run<?,?> build) {
+        List<VesselBuildAction> links = new ArrayList<VesselBuildAction>();
+        for (VesselBuildAction action : build.getActions(VesselBuildAction.class)) {
+            if (action.isSuccess()) {
+                links.add(action);
+            }
+        }
+        return links;
+    }
+
+    private static Integer load(Job<?,?> project) {
+        File file = new File(project.getRootDir(), FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(FileUtils.readFileToString(file, "UTF-8").trim());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+        }
+        return null;
+    }
+
+    private static void store(Job<?,?> project, int number) {
+        LATEST.put(project.getFullName(), number);
+        File file = new File(project.getRootDir(), FILE_NAME);
+        try {
+            FileUtils.writeStringToFile(file, String.valueOf(number), "UTF-8");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write " + file, e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * When a request is sent again, and how long to wait before. Retried are failures
+ * where the server most likely did not act on the request: the connection could
+ * not be made or broke, timed out, or the answer was 408, 429, 502, 503 or 504.
+ * Errors reading the artifact and interrupts end the upload at once, and so does
+ * a POST that timed out waiting for its answer after the whole body went out: the
+ * server may have stored the version, sent again it would be refused or published
+ * twice.
+ * Waits grow exponentially and half of each is random, so builds failing together
+ * do not come back together. No wait reaches past the deadline of the upload.
+ *
+ * <p>A 429 or 503 holds back every request with the same API key on this JVM
+ * until its <tt>Retry-After</tt>, or the backoff, has passed.
+ */
+class RetryPolicy {
+
+    static final long BASE_DELAY = 1000;
+    static final long MAX_DELAY = 60 * 1000;
+
+    private static final Random random = new Random();
+
+    // API key to the time its requests may go again
+    private static final ConcurrentMap<String, Long> backoff = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Sends the request, again while it fails in a retryable way and attempts and
+     * time are left. The last answer is returned whatever its status.
+     */
+    static HttpTransport.Exchange send(String method, URL url, RequestEntity body, VesselUploader.UploadRequest ur, PrintStream logger) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            long delay;
+            String reason;
+            try {
+                HttpTransport.Exchange exchange = VesselUploader.send(method, url, body, ur);
+                int statusCode = exchange.getStatusCode();
+                if (!isRetryable(statusCode) || !canRetry(attempt, body, ur)) {
+                    return exchange;
+                }
+                delay = Math.max(getDelay(attempt), getRetryAfter(exchange.getResponseHeader("Retry-After")));
+                exchange.release();
+                if (statusCode == 429 || statusCode == 503) {
+                    holdBack(ur.apiKey, delay);
+                }
+                reason = "HTTP " + statusCode;
+            } catch (IOException e) {
+                if (e instanceof SocketTimeoutException && "POST".equals(method) && isWritten(body)) {
+                    throw (IOException)new UnansweredException("No answer from " + url + " in time after the whole request was sent, not sending it again").initCause(e);
+                }
+                if (!isNetworkFailure(e) || !canRetry(attempt, body, ur)) {
+                    throw e;
+                }
+                delay = getDelay(attempt);
+                reason = e.toString();
+            }
+            if (ur.deadline > 0 && System.currentTimeMillis() + delay > ur.deadline) {
+                throw new UploadDeadlineException("Giving up on " + url + " after " + reason + ", no time left to retry");
+            }
+            if (logger != null) {
+                logger.println("Vessel request failed (" + reason + "), attempt " + (attempt + 1) + " of " + ur.maxAttempts + " in " + UploadTimings.formatMillis(delay));
+            }
+            sleep(delay);
+        }
+    }
+
+    private static boolean canRetry(int attempt, RequestEntity body, VesselUploader.UploadRequest ur) {
+        return attempt < ur.maxAttempts && (body == null || body.isRepeatable());
+    }
+
+    /**
+     * Whether the last attempt wrote the whole body, a body of unknown progress
+     * counts as not.
+     */
+    private static boolean isWritten(RequestEntity body) {
+        return body instanceof VesselUploader.TimedRequestEntity && ((VesselUploader.TimedRequestEntity)body).isWritten();
+    }
+
+    static boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Failures of the network: the host was not found, the connection could not be
+     * made, broke or timed out, or no answer came. Everything else is not, local file
+     * errors, interrupts, the deadline and server certificates that are not trusted
+     * among them.
+     */
+    static boolean isNetworkFailure(IOException e) {
+        // ConnectException and resets are SocketExceptions
+        return e instanceof SocketException
+                || e instanceof SocketTimeoutException
+                || e instanceof ConnectTimeoutException
+                || e instanceof NoHttpResponseException
+                || e instanceof UnknownHostException;
+    }
+
+    /**
+     * Half the exponential backoff of the attempt plus a random part of the other half.
+     */
+    static long getDelay(int attempt) {
+        long limit = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 16));
+        synchronized (random) {
+            return limit / 2 + (long)(random.nextDouble() * limit / 2);
+        }
+    }
+
+    /**
+     * @param value seconds or an HTTP date
+     * @return milliseconds, 0 if absent or not understood
+     */
+    static long getRetryAfter(String value) {
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // A date then
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static void holdBack(String apiKey, long delay) {
+        if (apiKey == null) {
+            return;
+        }
+        long until = System.currentTimeMillis() + delay;
+        synchronized (backoff) {
+            Long current = backoff.get(apiKey);
+            if (current == null || current < until) {
+                backoff.put(apiKey, until);
+            }
+        }
+    }
+
+    /**
+     * Waits out the backoff of the API key, if one is in force.
+     */
+    static void awaitBackoff(VesselUploader.UploadRequest ur) throws InterruptedIOException {
+        if (ur.apiKey == null) {
+            return;
+        }
+        Long until = backoff.get(ur.apiKey);
+        if (until == null) {
+            return;
+        }
+        long wait = until - System.currentTimeMillis();
+        if (wait <= 0) {
+            backoff.remove(ur.apiKey, until);
+            return;
+        }
+        if (ur.deadline > 0 && System.currentTimeMillis() + wait > ur.deadline) {
+            throw new UploadDeadlineException("Vessel asked to hold back longer than the upload may take");
+        }
+        sleep(wait);
+    }
+
+    static void checkDeadline(VesselUploader.UploadRequest ur) throws UploadDeadlineException {
+        if (ur.deadline > 0 && System.currentTimeMillis() > ur.deadline) {
+            throw new UploadDeadlineException("The upload did not finish in time");
+        }
+    }
+
+    static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw (InterruptedIOException)new InterruptedIOException("Upload interrupted").initCause(e);
+        }
+    }
+
+    /**
+     * The upload ran out of time, not retried.
+     */
+    static class UploadDeadlineException extends InterruptedIOException {
+        private static final long serialVersionUID = 1L;
+
+        UploadDeadlineException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The request went out whole but its answer did not come in time, not
+     * retried, nor sent to another endpoint.
+     */
+    static class UnansweredException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnansweredException(String message) {
+            super(message);
+        }
+    }
+}
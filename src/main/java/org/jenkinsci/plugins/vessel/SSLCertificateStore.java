@@ -6,8 +6,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.ssl.HttpSecureProtocol;
+import org.apache.commons.ssl.TrustMaterial;
 
 import jenkins.model.Jenkins;
 
@@ -15,12 +18,19 @@ public class SSLCertificateStore {
 
   private static byte [] ca = null;
   private static byte [] subclass = null;
+  private static HttpSecureProtocol socketFactory = null;
   
  // HttpSecureProtocol f = new HttpSecureProtocol();
   //TrustMaterial m = new Tr TrustMaterial(pemBase64);
   
   private static byte [] loadCerts(String name) {
-    Jenkins inst = Jenkins.getInstance();
+    Jenkins inst;
+    try {
+      inst = Jenkins.getInstance();
+    } catch (NoClassDefFoundError e) {
+      // The bulk uploader runs without Jenkins, and trusts the JDK's CAs only
+      return null;
+    }
     if (inst == null) {
       return null;
     }
@@ -40,17 +50,56 @@ public class SSLCertificateStore {
     return null;
   }
   
-  public static byte [] getCA() {
+  public static synchronized byte [] getCA() {
     if (ca == null) {
       ca = loadCerts("vessel/ca.pem");
     }
     return ca;
   }
   
-  public static byte [] getSubclass() {
+  public static synchronized byte [] getSubclass() {
     if (subclass == null) {
       subclass = loadCerts("vessel/sub.class1.server.ca.pem");
     }
     return subclass;
   }
+
+  /**
+   * Seeds the store with certificates shipped from the master. Slaves have no
+   * plugin directory to load the PEM files from.
+   */
+  public static synchronized void install(byte [] caRaw, byte [] subclassRaw) {
+    if (ca == null) {
+      ca = caRaw;
+    }
+    if (subclass == null) {
+      subclass = subclassRaw;
+    }
+  }
+
+  /**
+   * TLS sockets trusting the JDK's CAs and the shipped certificates. Shared by all
+   * transports so TLS sessions are reused.
+   */
+  public static synchronized HttpSecureProtocol getSocketFactory() throws IOException {
+    if (socketFactory != null) {
+      return socketFactory;
+    }
+    try {
+      HttpSecureProtocol f = new HttpSecureProtocol();
+      
+      byte [] caRaw = getCA();
+      if (caRaw != null) {
+        f.addTrustMaterial(new TrustMaterial(caRaw));
+      }
+      caRaw = getSubclass();
+      if (caRaw != null) {
+        f.addTrustMaterial(new TrustMaterial(caRaw));
+      }
+      socketFactory = f;
+      return f;
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Could not set up the Vessel trust material", e);
+    }
+  }
 }
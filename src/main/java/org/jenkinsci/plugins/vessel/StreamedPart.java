@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.httpclient.methods.multipart.PartBase;
+
+/**
+ * A file part whose body is produced while it is sent, so its length is not
+ * known up front and the request goes out chunked. Used for Proguard mappings
+ * and dSYM bundles, which compress well and may be large.
+ */
+abstract class StreamedPart extends PartBase {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String fileName;
+
+    StreamedPart(String name, String fileName, String contentType) {
+        super(name, contentType, null, "binary");
+        this.fileName = fileName;
+    }
+
+    /**
+     * A gzipped mapping file, or a zipped dSYM directory.
+     */
+    static StreamedPart forMapping(String name, File mapping) {
+        if (mapping.isDirectory()) {
+            return new ZipDirectory(name, mapping);
+        }
+        return new GzipFile(name, mapping);
+    }
+
+    @Override
+    protected void sendDispositionHeader(OutputStream out) throws IOException {
+        super.sendDispositionHeader(out);
+        out.write(("; filename=\"" + fileName + "\"").getBytes("US-ASCII"));
+    }
+
+    @Override
+    protected long lengthOfData() {
+        return -1;
+    }
+
+    static void copy(File file, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte [] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gzips a single file on the fly.
+     */
+    static class GzipFile extends StreamedPart {
+        private final File file;
+
+        GzipFile(String name, File file) {
+            super(name, file.getName() + ".gz", "application/gzip");
+            this.file = file;
+        }
+
+        @Override
+        protected void sendData(OutputStream out) throws IOException {
+            GZIPOutputStream gzip = new GZIPOutputStream(new KeepOpenOutputStream(out), BUFFER_SIZE);
+            copy(file, gzip);
+            gzip.close();
+        }
+    }
+
+    /**
+     * Zips a directory tree on the fly, entries are prefixed with the directory name.
+     */
+    static class ZipDirectory extends StreamedPart {
+        private final File dir;
+
+        ZipDirectory(String name, File dir) {
+            super(name, dir.getName() + ".zip", "application/zip");
+            this.dir = dir;
+        }
+
+        @Override
+        protected void sendData(OutputStream out) throws IOException {
+            ZipOutputStream zip = new ZipOutputStream(new KeepOpenOutputStream(out));
+            addEntries(zip, dir, dir.getName() + "/");
+            zip.close();
+        }
+
+        private static void addEntries(ZipOutputStream zip, File dir, String prefix) throws IOException {
+            zip.putNextEntry(new ZipEntry(prefix));
+            zip.closeEntry();
+            File [] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    addEntries(zip, child, prefix + child.getName() + "/");
+                } else {
+                    ZipEntry entry = new ZipEntry(prefix + child.getName());
+                    entry.setTime(child.lastModified());
+                    zip.putNextEntry(entry);
+                    copy(child, zip);
+                    zip.closeEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the compressing stream be closed, which releases its deflater,
+     * without closing the request body.
+     */
+    private static class KeepOpenOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        KeepOpenOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
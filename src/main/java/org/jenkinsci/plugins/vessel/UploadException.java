@@ -6,6 +6,8 @@ public class UploadException extends RuntimeException {
     private final int statusCode;
     private final String responseBody;
     private final HttpResponse response;
+    // What the upload spent until it was refused
+    private UploadTimings timings;
 
     public UploadException(int statusCode, String responseBody, HttpResponse response) {
         this.statusCode = statusCode;
@@ -24,4 +26,15 @@ public class UploadException extends RuntimeException {
     public HttpResponse getResponse() {
         return response;
     }
+
+    /**
+     * @return null if the upload did not get that far
+     */
+    public UploadTimings getTimings() {
+        return timings;
+    }
+
+    void setTimings(UploadTimings timings) {
+        this.timings = timings;
+    }
 }
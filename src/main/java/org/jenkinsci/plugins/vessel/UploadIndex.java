@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Remembers which artifacts were already uploaded to which Vessel app, so a
+ * byte identical artifact is not sent again. Maps the SHA-256 of the artifact
+ * and of the API key to the download url Vessel answered with.
+ *
+ * The index keeps the most recently used entries and is stored in
+ * <tt>$JENKINS_HOME/vessel-upload-index.xml</tt>.
+ */
+public class UploadIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadIndex.class.getName());
+
+    static final int MAX_ENTRIES = Integer.getInteger(UploadIndex.class.getName() + ".maxEntries", 1000);
+
+    private static UploadIndex instance;
+
+    // Least recently used first
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>();
+
+    public static synchronized UploadIndex get() {
+        if (instance == null) {
+            instance = new UploadIndex();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(new File(Jenkins.getInstance().getRootDir(), "vessel-upload-index.xml"));
+    }
+
+    private static String key(String sha256, String apiKey) {
+        // Keep API keys out of the file
+        return ArtifactInfo.sha256(apiKey) + "/" + sha256;
+    }
+
+    /**
+     * @return the download url of the earlier upload, or null
+     */
+    public synchronized String lookup(String sha256, String apiKey) {
+        String key = key(sha256, apiKey);
+        String url = entries.remove(key);
+        if (url != null) {
+            entries.put(key, url);
+        }
+        return url;
+    }
+
+    public synchronized void record(String sha256, String apiKey, String downloadUrl) {
+        String key = key(sha256, apiKey);
+        entries.remove(key);
+        entries.put(key, downloadUrl);
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > MAX_ENTRIES) {
+            eldest.next();
+            eldest.remove();
+        }
+        save();
+    }
+
+    private void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the Vessel upload index", e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Master wide queue of Vessel uploads. Runs at most a global number of uploads
+ * at once, and at most a number per API key, in submission order otherwise.
+ * Builds either wait on the returned future or go on while the upload runs.
+ *
+ * <p>Uploads may be submitted in a group, usually a job and an API key, under a
+ * build number. The newest number of a group wins: older uploads of the group
+ * still queued are dropped, those running are interrupted, and one arriving
+ * after a newer is dropped straight away. The task hears of it when it is a
+ * {@link Supersedable}, its future counts as cancelled. The newest numbers of the
+ * {@link #MAX_GROUPS} groups submitted to last are kept.
+ */
+public class UploadScheduler {
+
+    private static final UploadScheduler INSTANCE = new UploadScheduler();
+
+    /** Groups whose newest build number is remembered, deleted jobs drop out. */
+    static final int MAX_GROUPS = 1000;
+
+    public static UploadScheduler get() {
+        return INSTANCE;
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Vessel upload #" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Guarded by this
+    private final LinkedList<Upload<?>> queue = new LinkedList<Upload<?>>();
+    private final Map<String, Integer> runningPerKey = new HashMap<String, Integer>();
+    private final List<Upload<?>> started = new LinkedList<Upload<?>>();
+    // Group to the newest build number submitted, least recently submitted to first
+    private final Map<String, Integer> newest = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_GROUPS;
+        }
+    };
+    private int running;
+    private int maxConcurrent = 4;
+    private int maxPerApiKey = 2;
+
+    public synchronized void setLimits(int maxConcurrent, int maxPerApiKey) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPerApiKey = Math.max(1, maxPerApiKey);
+        dispatch();
+    }
+
+    /**
+     * Queues an upload for the given API key.
+     */
+    public <T> Future<T> submit(String apiKey, Callable<T> task) {
+        return submit(apiKey, null, 0, task);
+    }
+
+    /**
+     * Queues an upload for the given API key that supersedes the uploads of older
+     * builds in its group.
+     * @param group null for an upload nothing supersedes
+     */
+    public <T> Future<T> submit(String apiKey, String group, int number, Callable<T> task) {
+        Upload<T> upload = new Upload<T>(apiKey, group, number, task);
+        List<Upload<?>> dropped = new ArrayList<Upload<?>>();
+        List<Upload<?>> interrupted = new ArrayList<Upload<?>>();
+        enqueue(upload, dropped, interrupted);
+        // Tasks release artifacts and save builds when they hear of it, not under the lock
+        for (Upload<?> other : dropped) {
+            other.supersede(false);
+        }
+        for (Upload<?> other : interrupted) {
+            other.supersede(true);
+        }
+        return upload;
+    }
+
+    /**
+     * Queues the upload unless a newer build of its group came first, and takes
+     * the queued uploads it supersedes off the queue.
+     * @param dropped gets the uploads that will not run, this one included if it came late
+     * @param interrupted gets the running uploads it supersedes
+     */
+    private synchronized void enqueue(Upload<?> upload, List<Upload<?>> dropped, List<Upload<?>> interrupted) {
+        String group = upload.group;
+        if (group != null) {
+            Integer last = newest.get(group);
+            if (last != null && last > upload.number) {
+                dropped.add(upload);
+                return;
+            }
+            newest.put(group, upload.number);
+            for (Iterator<Upload<?>> it = queue.iterator(); it.hasNext();) {
+                Upload<?> other = it.next();
+                if (group.equals(other.group) && other.number < upload.number) {
+                    it.remove();
+                    dropped.add(other);
+                }
+            }
+            for (Upload<?> other : started) {
+                if (group.equals(other.group) && other.number < upload.number) {
+                    interrupted.add(other);
+                }
+            }
+        }
+        queue.add(upload);
+        dispatch();
+    }
+
+    /**
+     * A task that wants to know when a newer build took its place.
+     */
+    public interface Supersedable {
+        /**
+         * Called before the future is cancelled.
+         * @param started false if the task will never run, true if it is being interrupted
+         */
+        void superseded(boolean started);
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Starts queued uploads while there is room, skipping those whose API key is busy.
+     */
+    private synchronized void dispatch() {
+        Iterator<Upload<?>> it = queue.iterator();
+        while (running < maxConcurrent && it.hasNext()) {
+            Upload<?> upload = it.next();
+            if (upload.isCancelled()) {
+                it.remove();
+                continue;
+            }
+            Integer busy = runningPerKey.get(upload.apiKey);
+            if (busy != null && busy >= maxPerApiKey) {
+                continue;
+            }
+            it.remove();
+            running++;
+            runningPerKey.put(upload.apiKey, busy == null ? 1 : busy + 1);
+            started.add(upload);
+            executor.execute(upload);
+        }
+    }
+
+    private synchronized void finished(Upload<?> upload) {
+        running--;
+        started.remove(upload);
+        int busy = runningPerKey.get(upload.apiKey) - 1;
+        if (busy == 0) {
+            runningPerKey.remove(upload.apiKey);
+        } else {
+            runningPerKey.put(upload.apiKey, busy);
+        }
+        dispatch();
+    }
+
+    private class Upload<T> extends FutureTask<T> {
+        final String apiKey;
+        final String group;
+        final int number;
+        private final Callable<T> task;
+
+        Upload(String apiKey, String group, int number, Callable<T> task) {
+            super(task);
+            this.apiKey = apiKey == null ? "" : apiKey;
+            this.group = group;
+            this.number = number;
+            this.task = task;
+        }
+
+        void supersede(boolean started) {
+            if (isDone()) {
+                return;
+            }
+            if (task instanceof Supersedable) {
+                ((Supersedable)task).superseded(started);
+            }
+            cancel(started);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
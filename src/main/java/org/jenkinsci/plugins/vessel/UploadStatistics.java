@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Upload timings of all builds since the master started, at
+ * <tt>/vessel-stats/api/json</tt>. Failed uploads count as well. Only
+ * administrators see them, they tell what every job uploads.
+ */
+@Extension
+@ExportedBean
+public class UploadStatistics implements RootAction, StaplerProxy {
+
+    private int builds;
+    private long findMillis;
+    private int uploads;
+    private final long [] millis = new long[UploadTimings.Phase.values().length];
+    private long bytesSent;
+    private int retries;
+
+    public static UploadStatistics get() {
+        return Jenkins.getInstance().getExtensionList(RootAction.class).get(UploadStatistics.class);
+    }
+
+    public synchronized void recordFind(long duration) {
+        builds++;
+        findMillis += duration;
+    }
+
+    public synchronized void record(UploadTimings timings) {
+        uploads++;
+        for (UploadTimings.Phase phase : UploadTimings.Phase.values()) {
+            millis[phase.ordinal()] += timings.getMillis(phase);
+        }
+        bytesSent += timings.getBytesSent();
+        retries += timings.getRetries();
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public Object getTarget() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return this;
+    }
+
+    @Exported
+    public synchronized int getBuilds() {
+        return builds;
+    }
+
+    @Exported
+    public synchronized long getFindMillis() {
+        return findMillis;
+    }
+
+    @Exported
+    public synchronized int getUploads() {
+        return uploads;
+    }
+
+    /**
+     * Total milliseconds by phase.
+     */
+    @Exported
+    public synchronized Map<String, Long> getPhases() {
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        for (UploadTimings.Phase phase : UploadTimings.Phase.values()) {
+            phases.put(phase.name().toLowerCase(Locale.ENGLISH), millis[phase.ordinal()]);
+        }
+        return phases;
+    }
+
+    /**
+     * Mean milliseconds per upload by phase.
+     */
+    @Exported
+    public synchronized Map<String, Long> getMeanPhases() {
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        for (UploadTimings.Phase phase : UploadTimings.Phase.values()) {
+            phases.put(phase.name().toLowerCase(Locale.ENGLISH), uploads > 0 ? millis[phase.ordinal()] / uploads : 0);
+        }
+        return phases;
+    }
+
+    @Exported
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Exported
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Bytes per second over the time spent writing request bodies.
+     */
+    @Exported
+    public synchronized long getThroughput() {
+        long transfer = millis[UploadTimings.Phase.TRANSFER.ordinal()];
+        return transfer > 0 ? bytesSent * 1000 / transfer : 0;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Vessel upload statistics";
+    }
+
+    public String getUrlName() {
+        return "vessel-stats";
+    }
+}
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.model.Action;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Timings of the Vessel uploads of a build, shown in the build's remote API.
+ */
+@ExportedBean
+public class UploadTimingAction implements Action
+{
+    private long findMillis;
+    private String ipaPath;
+    private final List<UploadTimings> uploads = new ArrayList<UploadTimings>();
+
+    /**
+     * @param ipaPath the .ipa found in the workspace when the publisher has no path, or null
+     */
+    public UploadTimingAction(long findMillis, String ipaPath)
+    {
+        this.findMillis = findMillis;
+        this.ipaPath = ipaPath;
+    }
+
+    public synchronized void add(UploadTimings timings)
+    {
+        uploads.add(timings);
+    }
+
+    /**
+     * Time spent looking for the artifacts in the workspace.
+     */
+    @Exported
+    public long getFindMillis()
+    {
+        return findMillis;
+    }
+
+    /**
+     * Where the .ipa was found, relative to the workspace. The next build looks there first.
+     */
+    public String getIpaPath()
+    {
+        return ipaPath;
+    }
+
+    @Exported
+    public synchronized List<UploadTimings> getUploads()
+    {
+        return new ArrayList<UploadTimings>(uploads);
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Where the time of one artifact upload went. Filled partly on the node that
+ * uploads and travels back with the {@link VesselResponse}.
+ */
+@ExportedBean
+public class UploadTimings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Phase {
+        /** Hashing the artifact to look for a duplicate. */
+        HASH,
+        /** Copying the artifact from the node to the master. */
+        COPY,
+        /** Client, connection and TLS setup until the first body byte is written. */
+        CONNECT,
+        /** Writing the request body. */
+        TRANSFER,
+        /** Waiting for the server to answer once the body is sent. */
+        SERVER
+    }
+
+    public String artifact;
+
+    private final long [] millis = new long[Phase.values().length];
+    private long bytesSent;
+    private int retries;
+
+    public synchronized void add(Phase phase, long duration) {
+        millis[phase.ordinal()] += Math.max(0, duration);
+    }
+
+    public synchronized void addBytesSent(long bytes) {
+        bytesSent += bytes;
+    }
+
+    public synchronized void addRetries(int count) {
+        retries += count;
+    }
+
+    /**
+     * Adds what another part of the upload spent.
+     */
+    public void add(UploadTimings other) {
+        long [] otherMillis;
+        long otherBytes;
+        int otherRetries;
+        synchronized (other) {
+            otherMillis = other.millis.clone();
+            otherBytes = other.bytesSent;
+            otherRetries = other.retries;
+        }
+        synchronized (this) {
+            for (int i = 0; i < millis.length; i++) {
+                millis[i] += otherMillis[i];
+            }
+            bytesSent += otherBytes;
+            retries += otherRetries;
+        }
+    }
+
+    public synchronized long getMillis(Phase phase) {
+        return millis[phase.ordinal()];
+    }
+
+    @Exported
+    public String getArtifact() {
+        return artifact;
+    }
+
+    /**
+     * Milliseconds by phase name.
+     */
+    @Exported
+    public synchronized Map<String, Long> getPhases() {
+        Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.name().toLowerCase(Locale.ENGLISH), millis[phase.ordinal()]);
+        }
+        return phases;
+    }
+
+    @Exported
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Exported
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Bytes per second while the body was written, 0 if unknown.
+     */
+    @Exported
+    public synchronized long getThroughput() {
+        long transfer = millis[Phase.TRANSFER.ordinal()];
+        return transfer > 0 ? bytesSent * 1000 / transfer : 0;
+    }
+
+    /**
+     * One line for the build log.
+     */
+    public synchronized String getSummary() {
+        StringBuilder line = new StringBuilder();
+        line.append(formatBytes(bytesSent)).append(" sent at ").append(formatBytes(getThroughput())).append("/s");
+        for (Phase phase : Phase.values()) {
+            line.append(", ").append(phase.name().toLowerCase(Locale.ENGLISH)).append(' ').append(formatMillis(millis[phase.ordinal()]));
+        }
+        line.append(", ").append(retries).append(retries == 1 ? " retry" : " retries");
+        return line.toString();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ENGLISH, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ENGLISH, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    static String formatMillis(long millis) {
+        return String.format(Locale.ENGLISH, "%.1f s", millis / 1000.0);
+    }
+}
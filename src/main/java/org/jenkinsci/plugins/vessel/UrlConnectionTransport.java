@@ -0,0 +1,193 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketException;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * The JDK's {@link HttpURLConnection}. Bodies of known length are streamed with a
+ * fixed Content-Length, others chunked, nothing is buffered. The JDK keeps idle
+ * connections alive per host once a response has been read to the end.
+ *
+ * <p>Proxy credentials go out as a <tt>Proxy-Authorization</tt> header, which the
+ * JDK only sends to plain HTTP targets; a TLS target behind an authenticating
+ * proxy needs {@link CommonsHttpTransport}.
+ */
+class UrlConnectionTransport extends HttpTransport {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private static String getCharset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.toLowerCase().startsWith("charset=")) {
+                    return parameter.substring(8).replace("\"", "").trim();
+                }
+            }
+        }
+        return "UTF-8";
+    }
+
+    /**
+     * A connection that breaks while the body is written shows as a plain
+     * IOException, "Error writing request body to server", the JDK keeps the
+     * SocketException to itself. Those become SocketExceptions again so they are
+     * retried like other network failures; errors reading the artifact do not
+     * pass through here and stay as they are.
+     */
+    private static class BodyOutputStream extends FilterOutputStream {
+        BodyOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                throw toNetworkFailure(e);
+            }
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                throw toNetworkFailure(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw toNetworkFailure(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw toNetworkFailure(e);
+            }
+        }
+
+        private static IOException toNetworkFailure(IOException e) {
+            if (e.getClass() != IOException.class) {
+                return e;
+            }
+            return (IOException)new SocketException(e.getMessage()).initCause(e);
+        }
+    }
+
+    @Override
+    public Exchange send(String method, URL url, RequestEntity body, VesselUploader.UploadRequest ur) throws IOException {
+        final HttpURLConnection connection;
+        if (ur.proxyHost != null && !ur.proxyHost.isEmpty() && ur.proxyPort > 0) {
+            connection = (HttpURLConnection)url.openConnection(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(ur.proxyHost, ur.proxyPort)));
+            if (ur.proxyUser != null && !ur.proxyUser.isEmpty()) {
+                String credentials = ur.proxyUser + ":" + (ur.proxyPass != null ? ur.proxyPass : "");
+                connection.setRequestProperty("Proxy-Authorization", "Basic " + new String(Base64.encodeBase64(credentials.getBytes("UTF-8")), "US-ASCII"));
+            }
+        } else {
+            connection = (HttpURLConnection)url.openConnection();
+        }
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection)connection).setSSLSocketFactory(SSLCertificateStore.getSocketFactory());
+        }
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(ur.connectTimeout);
+        connection.setReadTimeout(ur.readTimeout);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(false);
+
+        final int statusCode;
+        try {
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", body.getContentType());
+                long length = body.getContentLength();
+                if (length >= 0 && length <= Integer.MAX_VALUE) {
+                    connection.setFixedLengthStreamingMode((int)length);
+                } else {
+                    connection.setChunkedStreamingMode(CHUNK);
+                }
+                OutputStream out = new BodyOutputStream(connection.getOutputStream());
+                body.writeRequest(out);
+                // Not closed when the write failed, the "insufficient data written"
+                // of the close would hide why
+                out.close();
+            }
+            statusCode = connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        } catch (RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+
+        return new Exchange() {
+            private InputStream stream;
+
+            @Override
+            public int getStatusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public String getResponseHeader(String name) {
+                return connection.getHeaderField(name);
+            }
+
+            @Override
+            public synchronized InputStream getResponseBodyAsStream() throws IOException {
+                if (stream == null) {
+                    stream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+                }
+                return stream;
+            }
+
+            @Override
+            public String getResponseBodyAsString() throws IOException {
+                InputStream in = getResponseBodyAsStream();
+                if (in == null) {
+                    return null;
+                }
+                return IOUtils.toString(in, getCharset(connection.getContentType()));
+            }
+
+            @Override
+            public void release() {
+                // Reading the rest lets the JDK reuse the connection
+                try {
+                    InputStream in = getResponseBodyAsStream();
+                    if (in != null) {
+                        IOUtils.copy(in, new NullOutputStream());
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.XmlFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * The highest version code Vessel answered with per app, to refuse an upload
+ * that would be rejected for its version before sending it. Stored in
+ * <tt>$JENKINS_HOME/vessel-versions.xml</tt>, keyed by the SHA-256 of the API key.
+ */
+public class VersionIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(VersionIndex.class.getName());
+
+    private static VersionIndex instance;
+
+    private final Map<String, String> versionCodes = new HashMap<String, String>();
+
+    public static synchronized VersionIndex get() {
+        if (instance == null) {
+            instance = new VersionIndex();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(new File(Jenkins.getInstance().getRootDir(), "vessel-versions.xml"));
+    }
+
+    /**
+     * @return the last version code uploaded with this key, or null
+     */
+    public synchronized String getVersionCode(String apiKey) {
+        return versionCodes.get(ArtifactInfo.sha256(apiKey));
+    }
+
+    public synchronized void record(String apiKey, String versionCode) {
+        String key = ArtifactInfo.sha256(apiKey);
+        String last = versionCodes.get(key);
+        if (last != null && ArtifactVersion.compare(versionCode, last) <= 0) {
+            return;
+        }
+        versionCodes.put(key, versionCode);
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the Vessel version index", e);
+        }
+    }
+}
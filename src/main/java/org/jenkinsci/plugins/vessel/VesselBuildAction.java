@@ -3,12 +3,37 @@ package org.jenkinsci.plugins.vessel;
 import hudson.model.Action;
 import hudson.model.ProminentProjectAction;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The install link of one uploaded artifact. Also what scripts read from the
+ * build's remote API and, through {@link VesselEnvironmentAction}, from the
+ * environment.
+ */
+@ExportedBean
 public class VesselBuildAction implements ProminentProjectAction
 {
+    public enum Status { PENDING, SUCCESS, FAILED, SKIPPED, SUPERSEDED }
+
     public String iconFileName;
     public String displayName;
     public String urlName;
 
+    // null for links recorded before uploads could run in the background
+    public Status status;
+    public String message;
+
+    // What Vessel answered, null for links recorded before
+    public String artifact;
+    public String target;
+    public String versionCode;
+    public String versionName;
+    public List<String> warnings;
+
     public VesselBuildAction()
     {
     }
@@ -20,7 +45,111 @@ public class VesselBuildAction implements ProminentProjectAction
         urlName = action.getUrlName();
     }
 
-    public String getIconFileName() {
+    /**
+     * An upload still on its way, the link shows up once it finished.
+     * @param artifactName shown on the link when the build has several artifacts or
+     *        apps, or null
+     */
+    public static VesselBuildAction pending(String artifactName)
+    {
+        VesselBuildAction action = new VesselBuildAction();
+        action.displayName = artifactName == null ? "Vessel Install Link" : "Vessel Install Link (" + artifactName + ")";
+        action.status = Status.PENDING;
+        return action;
+    }
+
+    public synchronized void setUploaded(String downloadUrl)
+    {
+        iconFileName = "package.gif";
+        urlName = downloadUrl;
+        status = Status.SUCCESS;
+    }
+
+    public synchronized void setVersion(String versionCode, String versionName, List<String> warnings)
+    {
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+        this.warnings = warnings == null ? null : new ArrayList<String>(warnings);
+    }
+
+    public synchronized void setFailed(String message)
+    {
+        this.message = message;
+        status = Status.FAILED;
+    }
+
+    public synchronized void setSkipped(String message)
+    {
+        this.message = message;
+        status = Status.SKIPPED;
+    }
+
+    /**
+     * A newer build of the job uploaded to the same app instead.
+     */
+    public synchronized void setSuperseded(String message)
+    {
+        this.message = message;
+        status = Status.SUPERSEDED;
+    }
+
+    public synchronized boolean isSuccess()
+    {
+        return status == null || status == Status.SUCCESS;
+    }
+
+    @Exported
+    public synchronized Status getStatus()
+    {
+        return status;
+    }
+
+    @Exported
+    public synchronized String getMessage()
+    {
+        return message;
+    }
+
+    @Exported
+    public String getArtifact()
+    {
+        return artifact;
+    }
+
+    /**
+     * Name of the further Vessel app this went to, null for the app of the publisher.
+     */
+    @Exported
+    public String getTarget()
+    {
+        return target;
+    }
+
+    @Exported
+    public synchronized String getDownloadUrl()
+    {
+        return status == null || status == Status.SUCCESS ? urlName : null;
+    }
+
+    @Exported
+    public synchronized String getVersionCode()
+    {
+        return versionCode;
+    }
+
+    @Exported
+    public synchronized String getVersionName()
+    {
+        return versionName;
+    }
+
+    @Exported
+    public synchronized List<String> getWarnings()
+    {
+        return warnings;
+    }
+
+    public synchronized String getIconFileName() {
         return iconFileName;
     }
 
@@ -28,7 +157,7 @@ public class VesselBuildAction implements ProminentProjectAction
        return displayName;
    }
 
-   public String getUrlName() {
+   public synchronized String getUrlName() {
        return urlName;
    }
 }
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.EnvironmentContributingAction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands the Vessel results to later build steps and triggered builds:
+ * VESSEL_DOWNLOAD_URL, VESSEL_VERSION_CODE, VESSEL_VERSION_NAME and
+ * VESSEL_WARNINGS (one per line) of the first uploaded artifact, and the same
+ * suffixed with _1, _2 and so on for each when a build uploads several, or to
+ * several apps. VESSEL_TARGET names the app.
+ */
+public class VesselEnvironmentAction implements EnvironmentContributingAction
+{
+    public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env)
+    {
+        List<VesselBuildAction> uploaded = new ArrayList<VesselBuildAction>();
+        for (VesselBuildAction action : build.getActions(VesselBuildAction.class))
+        {
+            if (action.getDownloadUrl() != null)
+                uploaded.add(action);
+        }
+        if (uploaded.isEmpty())
+            return;
+        
+        put(env, "", uploaded.get(0));
+        if (uploaded.size() > 1)
+        {
+            for (int i = 0; i < uploaded.size(); i++)
+                put(env, "_" + (i + 1), uploaded.get(i));
+        }
+    }
+
+    private static void put(EnvVars env, String suffix, VesselBuildAction action)
+    {
+        env.put("VESSEL_DOWNLOAD_URL" + suffix, action.getDownloadUrl());
+        if (action.getVersionCode() != null)
+            env.put("VESSEL_VERSION_CODE" + suffix, action.getVersionCode());
+        if (action.getVersionName() != null)
+            env.put("VESSEL_VERSION_NAME" + suffix, action.getVersionName());
+        if (action.getWarnings() != null)
+        {
+            StringBuilder warnings = new StringBuilder();
+            for (String warning : action.getWarnings())
+                warnings.append(warnings.length() > 0 ? "\n" : "").append(warning);
+            env.put("VESSEL_WARNINGS" + suffix, warnings.toString());
+        }
+        if (action.getArtifact() != null)
+            env.put("VESSEL_ARTIFACT" + suffix, action.getArtifact());
+        if (action.getTarget() != null)
+            env.put("VESSEL_TARGET" + suffix, action.getTarget());
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
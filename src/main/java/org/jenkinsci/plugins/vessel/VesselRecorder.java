@@ -1,40 +1,53 @@
 package org.jenkinsci.plugins.vessel;
 
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Plugin;
 import hudson.model.Action;
-import hudson.model.BuildListener;
 import hudson.model.Result;
-import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.model.AbstractProject;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
-import hudson.util.RunList;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.StreamTaskListener;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.Predicate;
+import org.jenkinsci.Symbol;
 import org.apache.commons.io.FileUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 /*
@@ -45,7 +58,7 @@ import org.kohsuke.stapler.StaplerRequest;
  * Inspired by https://github.com/lacostej/testflight-plugin from Jerome Lacoste
  */
 
-public class VesselRecorder extends Recorder
+public class VesselRecorder extends Recorder implements SimpleBuildStep
 {
     private String apiKey;
     public String getApiKey()
@@ -58,42 +71,84 @@ public class VesselRecorder extends Recorder
     {
         return this.releaseNotes;
     }
+
+    @DataBoundSetter
+    public void setReleaseNotes(String releaseNotes)
+    {
+        this.releaseNotes = releaseNotes;
+    }
     
     private String apkPath;
     public String getApkPath()
     {
         return this.apkPath;
     }
+
+    @DataBoundSetter
+    public void setApkPath(String apkPath)
+    {
+        this.apkPath = apkPath;
+    }
     
     private Boolean replace;
     public Boolean getReplace()
     {
         return this.replace;
     }
+
+    @DataBoundSetter
+    public void setReplace(Boolean replace)
+    {
+        this.replace = replace;
+    }
     
     private String userGroups;
     public String getUserGroups()
     {
         return this.userGroups;
     }
+
+    @DataBoundSetter
+    public void setUserGroups(String userGroups)
+    {
+        this.userGroups = userGroups;
+    }
     
     private String users;
     public String getUsers()
     {
         return this.users;
     }
+
+    @DataBoundSetter
+    public void setUsers(String users)
+    {
+        this.users = users;
+    }
     
     private String mapping;
     public String getMapping()
     {
         return this.mapping;
     }
+
+    @DataBoundSetter
+    public void setMapping(String mapping)
+    {
+        this.mapping = mapping;
+    }
     
     private String proxyHost;
     public String getProxyHost()
     {
         return proxyHost;
     }
+
+    @DataBoundSetter
+    public void setProxyHost(String proxyHost)
+    {
+        this.proxyHost = proxyHost;
+    }
     
     private String proxyUser;
     public String getProxyUser()
@@ -101,11 +156,23 @@ public class VesselRecorder extends Recorder
         return proxyUser;
     }
 
+    @DataBoundSetter
+    public void setProxyUser(String proxyUser)
+    {
+        this.proxyUser = proxyUser;
+    }
+
     private String proxyPass;
     public String getProxyPass()
     {
         return proxyPass;
     }
+
+    @DataBoundSetter
+    public void setProxyPass(String proxyPass)
+    {
+        this.proxyPass = proxyPass;
+    }
     
     private int proxyPort;
     public int getProxyPort()
@@ -113,20 +180,114 @@ public class VesselRecorder extends Recorder
         return proxyPort;
     }
 
+    @DataBoundSetter
+    public void setProxyPort(int proxyPort)
+    {
+        this.proxyPort = proxyPort;
+    }
+
+    private boolean uploadFromAgent;
+    public boolean getUploadFromAgent()
+    {
+        return uploadFromAgent;
+    }
+
+    @DataBoundSetter
+    public void setUploadFromAgent(boolean uploadFromAgent)
+    {
+        this.uploadFromAgent = uploadFromAgent;
+    }
+
+    private boolean skipDuplicates;
+    public boolean getSkipDuplicates()
+    {
+        return skipDuplicates;
+    }
+
+    @DataBoundSetter
+    public void setSkipDuplicates(boolean skipDuplicates)
+    {
+        this.skipDuplicates = skipDuplicates;
+    }
+
+    private boolean uploadAsync;
+    public boolean getUploadAsync()
+    {
+        return uploadAsync;
+    }
+
+    @DataBoundSetter
+    public void setUploadAsync(boolean uploadAsync)
+    {
+        this.uploadAsync = uploadAsync;
+    }
+
+    static final String VERSION_CHECK_FAIL = "FAIL";
+    static final String VERSION_CHECK_SKIP = "SKIP";
+    
+    // Empty to upload regardless of the version
+    private String versionCheck;
+    public String getVersionCheck()
+    {
+        return versionCheck;
+    }
+
+    @DataBoundSetter
+    public void setVersionCheck(String versionCheck)
+    {
+        this.versionCheck = versionCheck;
+    }
+    
+    static final String PARTIAL_FAILURE_UNSTABLE = "UNSTABLE";
+    static final String PARTIAL_FAILURE_IGNORE = "IGNORE";
+    
+    // Further apps the artifacts go to
+    private List<VesselTarget> targets;
+    public List<VesselTarget> getTargets()
+    {
+        return targets != null ? targets : Collections.<VesselTarget>emptyList();
+    }
+
+    @DataBoundSetter
+    public void setTargets(List<VesselTarget> targets)
+    {
+        this.targets = targets != null ? new ArrayList<VesselTarget>(targets) : null;
+    }
+    
+    // What a build whose uploads partly failed becomes: empty fails it, or unstable,
+    // or ignored. Uploads in the background do not change the result.
+    private String partialFailure;
+    public String getPartialFailure()
+    {
+        return partialFailure;
+    }
+
+    @DataBoundSetter
+    public void setPartialFailure(String partialFailure)
+    {
+        this.partialFailure = partialFailure;
+    }
+    
+    // Uploads of an older build of the job to the same API key give way to a newer build
+    private boolean supersede;
+    public boolean getSupersede()
+    {
+        return supersede;
+    }
+
+    @DataBoundSetter
+    public void setSupersede(boolean supersede)
+    {
+        this.supersede = supersede;
+    }
+    
+    private static final Pattern EXISTING_VERSION = Pattern.compile("version code (\\S+) already exist");
+
+
     @DataBoundConstructor
-    public VesselRecorder(String apiKey, String releaseNotes, Boolean replace, String apkPath, String users, String userGroups, String proxyHost, String proxyUser, String proxyPass, int proxyPort)
+    public VesselRecorder(String apiKey)
     {
         this.apiKey = apiKey;
-        this.releaseNotes = releaseNotes;
-        this.apkPath = apkPath;
-        this.replace = replace;
-        this.users = users;
-        this.userGroups = userGroups;
-        
-        this.proxyHost = proxyHost;
-        this.proxyUser = proxyUser;
-        this.proxyPass = proxyPass;
-        this.proxyPort = proxyPort;
     }
 
     @Override
@@ -139,133 +300,585 @@ public class VesselRecorder extends Recorder
         return BuildStepMonitor.NONE;
     }
 
-    @Override
-    public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener)
+    /**
+     * Freestyle builds get here through the publisher's compatibility layer, Pipeline
+     * through <tt>step</tt>, or <tt>vessel</tt> with the symbol.
+     */
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException
     {
-        if (build.getResult().isWorseOrEqualTo(Result.FAILURE))
-            return false;
+        // A running Pipeline has no result yet
+        Result result = build.getResult();
+        if (result != null && result.isWorseOrEqualTo(Result.FAILURE))
+            return;
+        if (!upload(build, workspace, listener))
+            throw new AbortException("Uploading to Vessel failed");
+    }
 
+    private boolean upload(final Run<?, ?> build, FilePath workspace, final TaskListener listener) throws InterruptedException
+    {
         listener.getLogger().println("Uploading to Vessel");
 
-        File tempDir = null;
         try
         {
-            EnvVars vars = build.getEnvironment(listener);
+            final EnvVars vars = build.getEnvironment(listener);
+            
+            long findStarted = System.currentTimeMillis();
+            // Where the .ipa turned up when no path is set, relative to the workspace
+            String ipa = isPathSpecified() ? null : findIpa(build, workspace);
+            List<FilePath> artifacts = findArtifacts(workspace, vars, ipa);
+            final UploadTimingAction timingAction = new UploadTimingAction(System.currentTimeMillis() - findStarted, ipa);
+            build.addAction(timingAction);
+            // Reads every upload of the build, one is enough when the publisher runs again
+            if (build.getAction(VesselEnvironmentAction.class) == null)
+                build.addAction(new VesselEnvironmentAction());
+            UploadStatistics.get().recordFind(timingAction.getFindMillis());
+            if (artifacts.isEmpty())
+            {
+                if (!isPathSpecified())
+                    listener.getLogger().println("No .ipa file found in the workspace");
+                else
+                    listener.getLogger().println("No artifact matches " + vars.expand(apkPath));
+                return false;
+            }
+            
+            // Uploads run on the master wide scheduler, the build either waits for them or goes on
+            final List<VesselTarget> destinations = getDestinations();
+            final TaskListener uploadListener;
+            final AtomicInteger remaining = new AtomicInteger(artifacts.size() * destinations.size());
+            if (uploadAsync)
+            {
+                // The build log is closed by the time the uploads finish
+                File log = new File(build.getRootDir(), "vessel-upload.log");
+                uploadListener = new StreamTaskListener(log);
+                listener.getLogger().println("Uploading in the background, see " + log);
+            }
+            else
+            {
+                uploadListener = listener;
+            }
+            if (artifacts.size() > 1)
+                listener.getLogger().println("Uploading " + artifacts.size() + " artifacts");
+            if (destinations.size() > 1)
+                listener.getLogger().println("Publishing to " + destinations.size() + " Vessel apps");
+            
+            List<Future<Boolean>> uploads = new ArrayList<Future<Boolean>>();
+            List<VesselBuildAction> actions = new ArrayList<VesselBuildAction>();
+            for (FilePath path : artifacts)
+            {
+                // Read, hashed and copied once, whichever upload comes first
+                final PreparedArtifact artifact = new PreparedArtifact(path, destinations.size());
+                for (final VesselTarget destination : destinations)
+                {
+                    String targetName = destination == destinations.get(0) ? null : getTargetName(destination);
+                    final String label = getLabel(artifacts.size() > 1 ? path.getName() : null, targetName);
+                    final VesselBuildAction action = VesselBuildAction.pending(label);
+                    action.artifact = path.getName();
+                    action.target = targetName;
+                    actions.add(action);
+                    if (uploadAsync)
+                        build.addAction(action);
+                    String key = vars.expand(destination.getApiKey());
+                    String group = supersede ? build.getParent().getFullName() + "\n" + key : null;
+                    uploads.add(UploadScheduler.get().submit(key, group, build.getNumber(),
+                            new ArtifactUpload(build, workspace, artifact, destination, action, label, timingAction, vars, uploadListener, remaining)));
+                }
+            }
+            if (uploadAsync)
+                return true;
+            
+            int succeeded = 0;
+            int failed = 0;
+            int superseded = 0;
+            for (int i = 0; i < uploads.size(); i++)
+            {
+                try
+                {
+                    if (uploads.get(i).get())
+                        succeeded++;
+                    else
+                        failed++;
+                    // Failed ones carry no link, they are there for the remote API
+                    build.addAction(actions.get(i));
+                }
+                catch (CancellationException e)
+                {
+                    superseded++;
+                    build.addAction(actions.get(i));
+                }
+                catch (InterruptedException e)
+                {
+                    // Build aborted, let the uploads go
+                    for (Future<Boolean> upload : uploads)
+                        upload.cancel(true);
+                    throw e;
+                }
+            }
+            if (superseded > 0)
+                listener.getLogger().println(superseded + " of " + uploads.size() + " Vessel uploads were superseded by a newer build");
+            return applyPartialFailure(build, listener, succeeded, failed);
+        }
+        catch (InterruptedException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            listener.getLogger().println(e);
+            e.printStackTrace(listener.getLogger());
+            return false;
+        }
+    }
+
+    private boolean isPathSpecified()
+    {
+        return apkPath != null && !apkPath.trim().isEmpty();
+    }
+
+    /**
+     * Searches the workspace for an .ipa, looking first where the previous build found it.
+     * @return the path relative to the workspace, or null
+     */
+    private String findIpa(Run<?, ?> build, FilePath workspace) throws IOException, InterruptedException
+    {
+        Run<?, ?> previous = build.getPreviousBuild();
+        UploadTimingAction last = previous != null ? previous.getAction(UploadTimingAction.class) : null;
+        DescriptorImpl descriptor = getDescriptor();
+        return workspace.act(new IpaFinder(descriptor.getIpaSearchDepth(), descriptor.getPickNewestIpa(),
+                last != null ? last.getIpaPath() : null, build.getTimeInMillis()));
+    }
+
+    /**
+     * The artifacts to upload. apkPath is a single file, or an Ant style pattern
+     * or comma separated list relative to the workspace. Without a path the
+     * .ipa found in the workspace is uploaded.
+     */
+    private List<FilePath> findArtifacts(FilePath workspace, EnvVars vars, String ipa) throws IOException, InterruptedException
+    {
+        if (!isPathSpecified())
+        {
+            if (ipa == null)
+                return Collections.emptyList();
+            return Collections.singletonList(workspace.child(ipa));
+        }
+        
+        String path = vars.expand(apkPath).trim();
+        if (path.indexOf('*') < 0 && path.indexOf('?') < 0 && path.indexOf(',') < 0)
+            return Collections.singletonList(new FilePath(workspace, path));
+        return Arrays.asList(workspace.list(path));
+    }
+
+    /**
+     * Whether the build passes when some uploads failed, see {@link #partialFailure}.
+     */
+    private boolean applyPartialFailure(Run<?, ?> build, TaskListener listener, int succeeded, int failed)
+    {
+        if (failed == 0)
+            return true;
+        if (succeeded == 0)
+            return false;
+        listener.getLogger().println(failed + " of " + (succeeded + failed) + " Vessel uploads failed");
+        if (PARTIAL_FAILURE_UNSTABLE.equals(partialFailure))
+        {
+            build.setResult(Result.UNSTABLE);
+            return true;
+        }
+        return PARTIAL_FAILURE_IGNORE.equals(partialFailure);
+    }
+
+    /**
+     * The app of the publisher itself, then the further targets.
+     */
+    List<VesselTarget> getDestinations()
+    {
+        List<VesselTarget> destinations = new ArrayList<VesselTarget>();
+        destinations.add(new VesselTarget(null, apiKey, users, userGroups));
+        destinations.addAll(getTargets());
+        return destinations;
+    }
+
+    /**
+     * What sets an install link apart from the others of the build, null if it is the only one.
+     */
+    private static String getLabel(String artifactName, String targetName)
+    {
+        if (artifactName == null)
+            return targetName;
+        return targetName == null ? artifactName : artifactName + " to " + targetName;
+    }
 
+    private static String getTargetName(VesselTarget destination)
+    {
+        if (destination.getName() != null && !destination.getName().trim().isEmpty())
+            return destination.getName().trim();
+        String key = destination.getApiKey();
+        return "API key " + (key == null || key.length() <= 6 ? key : key.substring(0, 6) + "...");
+    }
+
+    /**
+     * One artifact on its way to one or more apps. What does not depend on the app is
+     * done once by the first upload that needs it: hashing, reading the version and
+     * copying the file to the master. The copy goes once the last upload is done.
+     */
+    private class PreparedArtifact
+    {
+        final FilePath path;
+        private int users;
+
+        private ArtifactInfo info;
+        private ArtifactVersion version;
+        private boolean versionRead;
+        private File tempDir;
+        private File file;
+        private File mappingFile;
+
+        PreparedArtifact(FilePath path, int users)
+        {
+            this.path = path;
+            this.users = users;
+        }
+
+        /**
+         * @return milliseconds spent hashing by this call
+         */
+        synchronized long inspect() throws IOException, InterruptedException
+        {
+            if (info != null)
+                return 0;
+            long started = System.currentTimeMillis();
+            info = path.act(new ArtifactInfo.Inspect());
+            return System.currentTimeMillis() - started;
+        }
+
+        synchronized ArtifactInfo getInfo()
+        {
+            return info;
+        }
+
+        synchronized ArtifactVersion readVersion() throws IOException, InterruptedException
+        {
+            if (!versionRead)
+            {
+                version = path.act(new ArtifactVersion.Read());
+                versionRead = true;
+            }
+            return version;
+        }
+
+        /**
+         * @return milliseconds spent copying by this call
+         */
+        synchronized long copy(FilePath workspace, EnvVars vars, TaskListener listener) throws IOException, InterruptedException
+        {
+            if (file != null)
+                return 0;
+            long started = System.currentTimeMillis();
             // Copy remote file to local file system.
             tempDir = File.createTempFile("jzubhium", null);
             tempDir.delete();
             tempDir.mkdirs();
             
-            boolean pathSpecified = apkPath != null && !apkPath.trim().isEmpty();
-            String expandPath;
-            if(!pathSpecified)
-            	expandPath = "$WORKSPACE";
-            else
-            	expandPath = apkPath;
-            
-            File file = getFileLocally(build.getWorkspace(), vars.expand(expandPath), tempDir, pathSpecified);
+            file = getFileLocally(path, tempDir);
             listener.getLogger().println(file);
-            
-            VesselUploader uploader = new VesselUploader(listener.getLogger());
-            VesselUploader.UploadRequest ur = createUploadRequest(file, vars);
+            FilePath mappingPath = getMappingPath(workspace, vars);
+            if (mappingPath != null)
+                mappingFile = getFileLocally(mappingPath, tempDir);
+            return System.currentTimeMillis() - started;
+        }
+
+        synchronized File getFile()
+        {
+            return file;
+        }
+
+        synchronized File getMappingFile()
+        {
+            return mappingFile;
+        }
 
-            final VesselResponse vesselResponse;
+        synchronized void release(TaskListener listener)
+        {
+            if (--users == 0 && tempDir != null)
+                deleteTempDir(tempDir, listener);
+        }
+    }
+
+    /**
+     * The upload of one artifact to one app as the scheduler runs it. A newer build
+     * of the job may take its place, before it started or while it runs.
+     */
+    private class ArtifactUpload implements Callable<Boolean>, UploadScheduler.Supersedable
+    {
+        private final Run<?, ?> build;
+        private final FilePath workspace;
+        private final PreparedArtifact artifact;
+        private final VesselTarget destination;
+        private final VesselBuildAction action;
+        private final String label;
+        private final UploadTimingAction timingAction;
+        private final EnvVars vars;
+        private final TaskListener listener;
+        private final AtomicInteger remaining;
+        private volatile boolean superseded;
+
+        ArtifactUpload(Run<?, ?> build, FilePath workspace, PreparedArtifact artifact, VesselTarget destination, VesselBuildAction action, String label,
+                UploadTimingAction timingAction, EnvVars vars, TaskListener listener, AtomicInteger remaining)
+        {
+            this.build = build;
+            this.workspace = workspace;
+            this.artifact = artifact;
+            this.destination = destination;
+            this.action = action;
+            this.label = label;
+            this.timingAction = timingAction;
+            this.vars = vars;
+            this.listener = listener;
+            this.remaining = remaining;
+        }
+
+        public Boolean call() throws Exception
+        {
+            boolean success = false;
             try {
-                vesselResponse = uploader.upload(ur);
-            } catch (UploadException ue) {
-                listener.getLogger().println("Incorrect response code: " + ue.getStatusCode());
-                listener.getLogger().println(ue.getResponseBody());
-                return false;
+                success = uploadArtifact(workspace, artifact, destination, action, timingAction, vars, listener);
+                if (!success && !superseded)
+                    action.setFailed("Uploading " + getName() + " to Vessel was not successful");
+            } catch (Exception e) {
+                if (superseded) {
+                    listener.getLogger().println("Upload of " + getName() + " stopped, a newer build took its place");
+                } else {
+                    listener.getLogger().println(e);
+                    e.printStackTrace(listener.getLogger());
+                    action.setFailed(e.toString());
+                }
+            } finally {
+                finish(success);
             }
+            return success;
+        }
 
-            if (vesselResponse == null)
+        public void superseded(boolean started)
+        {
+            superseded = true;
+            // Before the future is cancelled, a waiting build adds the action as soon as it is
+            action.setSuperseded("A newer build of " + build.getParent().getFullName() + " took the place of this upload");
+            if (!started)
             {
-            	listener.getLogger().println("Uploading to Vessel was not successful! No answer returned.");
-                return false;
+                listener.getLogger().println("Upload of " + getName() + " dropped, a newer build took its place");
+                finish(false);
             }
-            
-            // Check for warnings to log
-            if (vesselResponse.pushInfo != null){
-            	List<String> warnings = new ArrayList<String>();
+        }
 
-            	warnings = (List<String>)vesselResponse.pushInfo.get("push.warnings");
+        private String getName()
+        {
+            return label != null ? label : artifact.path.getName();
+        }
 
-            	if (warnings != null)
-	            	for (String w : warnings) {
-	            		listener.getLogger().println("Vessel WARNING: " + w);
-	            	}
+        private void finish(boolean success)
+        {
+            artifact.release(listener);
+            if (uploadAsync) {
+                if (success)
+                    LatestUploadCache.uploaded(build);
+                try {
+                    build.save();
+                } catch (IOException e) {
+                    listener.getLogger().println(e);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    try {
+                        ((StreamTaskListener)listener).close();
+                    } catch (IOException e) {
+                        // Nothing left to log to
+                    }
+                }
             }
-            
-            // Check for errors to log
-            if (vesselResponse.fieldErrors != null)
+        }
+    }
+
+    /**
+     * Uploads a single artifact to one app and fills in its install link.
+     */
+    private boolean uploadArtifact(FilePath workspace, PreparedArtifact artifact, VesselTarget destination, VesselBuildAction action, UploadTimingAction timingAction, EnvVars vars, TaskListener listener) throws IOException, InterruptedException, org.json.simple.parser.ParseException
+    {
+        FilePath target = artifact.path;
+        String key = vars.expand(destination.getApiKey());
+        
+        // Identical artifacts already on Vessel are not sent again
+        long hashMillis = 0;
+        long copyMillis = 0;
+        if (skipDuplicates)
+        {
+            hashMillis = artifact.inspect();
+            String downloadUrl = UploadIndex.get().lookup(artifact.getInfo().getSha256(), key);
+            if (downloadUrl != null)
             {
-            	Iterator it = vesselResponse.fieldErrors.entrySet().iterator();
-        		while (it.hasNext()) {
-					Map.Entry pairs = (Map.Entry)it.next();
-					listener.getLogger().println("Vessel ERROR: " + pairs.getKey() + " = " + pairs.getValue());
-				}
+                listener.getLogger().println("Artifact " + artifact.getInfo().getPath() + " was already uploaded to Vessel, skipping the upload.");
+                action.setUploaded(downloadUrl);
+                return true;
             }
-            
-            // Return if no success
-            if (vesselResponse.success == false)
+        }
+        
+        // Vessel refuses a version code it already has, find out before sending the file
+        if (versionCheck != null && versionCheck.length() > 0 && (replace == null || !replace))
+        {
+            ArtifactVersion version = artifact.readVersion();
+            String last = VersionIndex.get().getVersionCode(key);
+            if (version != null && last != null && ArtifactVersion.compare(version.getVersionCode(), last) <= 0)
             {
-                listener.getLogger().println("Uploading to Vessel was not successful!");
+                String message = target.getName() + " has version " + version + " but Vessel already has version code " + last
+                        + ", increment the version code or replace the build";
+                listener.getLogger().println(message);
+                if (VERSION_CHECK_SKIP.equals(versionCheck))
+                {
+                    listener.getLogger().println("Skipping the upload.");
+                    action.setSkipped(message);
+                    return true;
+                }
+                action.setFailed(message);
                 return false;
             }
-            else{
-            	listener.getLogger().println("Successfully uploaded to Vessel.");
+        }
+        
+        // During an outage uploads fail at once, nothing is copied
+        if (!CircuitBreaker.get().allow(createProbeRequest(), listener.getLogger()))
+            return false;
+        
+        if (!uploadFromAgent)
+            copyMillis = artifact.copy(workspace, vars, listener);
+        
+        String label = action.target != null ? target.getName() + " to " + action.target : target.getName();
+        final VesselResponse vesselResponse;
+        // Failed uploads took their time and retries as well
+        UploadTimings timings = null;
+        try {
+            if (uploadFromAgent)
+            {
+                // Upload from the node holding the workspace, nothing is copied to the master
+                VesselUploader.UploadRequest ur = createUploadRequest(null, vars, destination);
+                FilePath mappingPath = getMappingPath(workspace, vars);
+                if (mappingPath != null)
+                    ur.mapping = mappingPath.getRemote();
+                // The agent leases bandwidth from the master's limiter, a tenth of a second at a time
+                if (ur.throttle != null)
+                    ur.throttle = target.getChannel().export(BandwidthLimiter.Throttle.class, ur.throttle);
+                VesselUploadCallable.Outcome outcome = target.act(new VesselUploadCallable(ur, listener));
+                timings = outcome.getTimings();
+                vesselResponse = outcome.getResponse();
+            }
+            else
+            {
+                VesselUploader uploader = new VesselUploader(listener.getLogger());
+                VesselUploader.UploadRequest ur = createUploadRequest(artifact.getFile(), vars, destination);
+                if (artifact.getMappingFile() != null)
+                    ur.mapping = artifact.getMappingFile().getAbsolutePath();
+                try {
+                    vesselResponse = uploader.upload(ur);
+                } finally {
+                    timings = uploader.getTimings();
+                }
             }
-            
-            VesselBuildAction installAction = new VesselBuildAction();
-            installAction.displayName = "Vessel Install Link";
-            installAction.iconFileName = "package.gif";
-            installAction.urlName = (String)vesselResponse.pushInfo.get("push.directDownloadUrl");
-            build.addAction(installAction);
-
-            /*
-            VesselBuildAction configureAction = new VesselBuildAction();
-            configureAction.displayName = "Zubhium Social Link";
-            configureAction.iconFileName = "star-gold.gif";
-            configureAction.urlName = (String)vesselResponse.pushInfo.get("push.socialUrl");
-            build.addAction(configureAction);
-            */
+        } catch (UploadException ue) {
+            timings = ue.getTimings();
+            if (CircuitBreaker.isGatewayError(ue.getStatusCode()))
+                CircuitBreaker.get().recordFailure("HTTP " + ue.getStatusCode());
+            else
+                CircuitBreaker.get().recordSuccess();
+            listener.getLogger().println("Incorrect response code: " + ue.getStatusCode());
+            listener.getLogger().println(ue.getResponseBody());
+            return false;
+        } catch (IOException e) {
+            CircuitBreaker.get().recordFailure(e);
+            throw e;
+        } finally {
+            if (timings == null)
+                timings = new UploadTimings();
+            timings.artifact = label;
+            timings.add(UploadTimings.Phase.HASH, hashMillis);
+            timings.add(UploadTimings.Phase.COPY, copyMillis);
+            timingAction.add(timings);
+            UploadStatistics.get().record(timings);
+            listener.getLogger().println("Vessel upload of " + label + ": " + timings.getSummary());
         }
-        catch (Exception e)
+        CircuitBreaker.get().recordSuccess();
+
+        if (vesselResponse == null)
         {
-            listener.getLogger().println(e);
-            e.printStackTrace(listener.getLogger());
+        	listener.getLogger().println("Uploading to Vessel was not successful! No answer returned.");
+            return false;
+        }
+        
+        // Check for warnings to log
+        for (String w : vesselResponse.warnings) {
+        	listener.getLogger().println("Vessel WARNING: " + w);
+        }
+        
+        // Check for errors to log
+        for (Map.Entry<String, List<String>> error : vesselResponse.fieldErrors.entrySet()) {
+        	listener.getLogger().println("Vessel ERROR: " + error.getKey() + " = " + error.getValue());
+        	for (String message : error.getValue()) {
+        	    // Learn the version code from the refusal, the next build checks before uploading
+        	    Matcher existing = EXISTING_VERSION.matcher(message);
+        	    if (existing.find())
+        	        VersionIndex.get().record(key, existing.group(1));
+        	}
+        }
+        
+        // Return if no success
+        if (!vesselResponse.success)
+        {
+            listener.getLogger().println("Uploading to Vessel was not successful!");
             return false;
         }
-        finally
+        else{
+        	listener.getLogger().println("Successfully uploaded " + label + " to Vessel.");
+        }
+        
+        String downloadUrl = vesselResponse.directDownloadUrl;
+        action.setUploaded(downloadUrl);
+        action.setVersion(vesselResponse.versionCode, vesselResponse.versionName, vesselResponse.warnings);
+        if (vesselResponse.versionCode != null)
+            VersionIndex.get().record(key, vesselResponse.versionCode);
+        if (vesselResponse.archive != null)
+            DeltaBaseStore.get().record(key, vesselResponse.archive);
+        if (artifact.getInfo() != null && downloadUrl != null)
+            UploadIndex.get().record(artifact.getInfo().getSha256(), key, downloadUrl);
+
+        /*
+        VesselBuildAction configureAction = new VesselBuildAction();
+        configureAction.displayName = "Zubhium Social Link";
+        configureAction.iconFileName = "star-gold.gif";
+        configureAction.urlName = vesselResponse.socialUrl;
+        build.addAction(configureAction);
+        */
+
+        return true;
+    }
+
+    private void deleteTempDir(File tempDir, TaskListener listener)
+    {
+        try
+        {
+            FileUtils.deleteDirectory(tempDir);
+        }
+        catch (IOException e)
         {
             try
             {
-                FileUtils.deleteDirectory(tempDir);
+                FileUtils.forceDeleteOnExit(tempDir);
             }
-            catch (IOException e)
+            catch (IOException e1)
             {
-                try
-                {
-                    FileUtils.forceDeleteOnExit(tempDir);
-                }
-                catch (IOException e1)
-                {
-                    listener.getLogger().println(e1);
-                }
+                listener.getLogger().println(e1);
             }
         }
-
-        return true;
     }
 
-    private VesselUploader.UploadRequest createUploadRequest(File apk, EnvVars vars) {
+    private VesselUploader.UploadRequest createUploadRequest(File apk, EnvVars vars, VesselTarget destination) {
         VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
-        ur.apiKey = vars.expand(apiKey);
+        ur.apiKey = vars.expand(destination.getApiKey());
         ur.releaseNotes = vars.expand(releaseNotes);
-        ur.userGroups = vars.expand(userGroups);
-        ur.users = vars.expand(users);
-        ur.mapping =  vars.expand(mapping);
+        ur.userGroups = vars.expand(destination.getUserGroups());
+        ur.users = vars.expand(destination.getUsers());
         ur.file = apk;
         ur.replace = replace;
         
@@ -275,42 +888,79 @@ public class VesselRecorder extends Recorder
         ur.proxyPort = proxyPort;
         ur.proxyUser = proxyUser;
         
+        // Chunking is configured globally
+        DescriptorImpl descriptor = getDescriptor();
+        ur.chunkSize = descriptor.getChunkSizeMb() * 1024L * 1024L;
+        ur.parallelChunks = descriptor.getParallelChunks();
+        ur.presizedBody = descriptor.getPresizedBody();
+        ur.transport = descriptor.getTransport();
+        ur.connectTimeout = descriptor.getConnectTimeoutSeconds() * 1000;
+        ur.readTimeout = descriptor.getReadTimeoutSeconds() * 1000;
+        ur.timeout = descriptor.getUploadTimeoutMinutes() * 60 * 1000L;
+        ur.maxAttempts = descriptor.getMaxAttempts();
+        
+        // Fastest endpoint first, the others in case it cannot be reached
+        List<String> endpoints = EndpointSelector.get().getOrder();
+        ur.apiPath = endpoints.get(0);
+        ur.fallbackPaths = new ArrayList<String>(endpoints.subList(1, endpoints.size()));
+        
+        if (descriptor.getDeltaUploads())
+        {
+            ur.delta = true;
+            ur.deltaBase = DeltaBaseStore.get().load(ur.apiKey);
+            ur.deltaThreshold = descriptor.getDeltaThresholdPercent();
+        }
+        
+        if (BandwidthLimiter.get().getRate() > 0)
+            ur.throttle = BandwidthLimiter.get().open(descriptor.getUploadWeight(ur.apiKey, vars.get("GIT_BRANCH")));
+        
+        return ur;
+    }
+
+    /**
+     * Route to Vessel of this publisher, for the {@link CircuitBreaker} to probe.
+     */
+    private VesselUploader.UploadRequest createProbeRequest() {
+        VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
+        ur.proxyHost = proxyHost;
+        ur.proxyPass = proxyPass;
+        ur.proxyPort = proxyPort;
+        ur.proxyUser = proxyUser;
+        ur.transport = getDescriptor().getTransport();
+        ur.apiPath = EndpointSelector.get().getOrder().get(0);
         return ur;
     }
 
-    private File getFileLocally(FilePath workingDir, String strFile, File tempDir, boolean pathSpecified) throws IOException, InterruptedException
+    /**
+     * The Proguard mapping file or dSYM directory, or null.
+     */
+    private FilePath getMappingPath(FilePath workspace, EnvVars vars)
     {
-    	if(!pathSpecified) {
-    		File workspaceDir = new File(strFile);
-    		List<File> ipas = new LinkedList<File>();
-    		findIpas(workspaceDir, ipas);
-    		if(ipas.isEmpty())
-    			return workspaceDir;
-    		return ipas.get(0);
-    	} else {
-			if (workingDir.isRemote())
+        if (mapping == null || mapping.trim().isEmpty())
+            return null;
+        return new FilePath(workspace, vars.expand(mapping).trim());
+    }
+
+    private File getFileLocally(FilePath remoteFile, File tempDir) throws IOException, InterruptedException
+    {
+		if (remoteFile.isRemote())
+		{
+			File file = new File(tempDir, remoteFile.getName());
+			if (remoteFile.isDirectory())
 			{
-				FilePath remoteFile = new FilePath(workingDir, strFile);
-				File file = new File(tempDir, remoteFile.getName());
-				file.createNewFile();
-				FileOutputStream fos = new FileOutputStream(file);
-				remoteFile.copyTo(fos);
-				fos.close();
+				// dSYM bundles are directories
+				remoteFile.copyRecursiveTo(new FilePath(file));
 				return file;
 			}
-			else
-			{
-				return new File(strFile);
-			}
-        }
-    }
-    
-    private void findIpas(File root, List<File> ipas) {
-		for(File file : root.listFiles()) {
-			if(file.isDirectory())
-				findIpas(file, ipas);
-			else if(file.getName().endsWith(".ipa"))
-				ipas.add(file);
+			file.createNewFile();
+			FileOutputStream fos = new FileOutputStream(file);
+			remoteFile.copyTo(fos);
+			fos.close();
+			return file;
+		}
+		else
+		{
+			return new File(remoteFile.getRemote());
 		}
     }
 
@@ -318,40 +968,52 @@ public class VesselRecorder extends Recorder
     public Collection<? extends Action> getProjectActions(AbstractProject<?, ?> project)
     {
         ArrayList<VesselBuildAction> actions = new ArrayList<VesselBuildAction>();
-        RunList<? extends AbstractBuild<?,?>> builds = project.getBuilds();
-
-        Collection predicated = CollectionUtils.select(builds, new Predicate() {
-            public boolean evaluate(Object o) {
-                return ((AbstractBuild<?,?>)o).getResult().isBetterOrEqualTo(Result.SUCCESS);
-            }
-        });
-
-        ArrayList<AbstractBuild<?,?>> filteredList = new ArrayList<AbstractBuild<?,?>>(predicated);
-
-
-        Collections.reverse(filteredList);
-        for (AbstractBuild<?,?> build : filteredList)
+        for (VesselBuildAction action : LatestUploadCache.getLatestInstallLinks(project))
         {
-           List<VesselBuildAction> testflightActions = build.getActions(VesselBuildAction.class);
-           if (testflightActions != null && testflightActions.size() > 0)
-           {
-               for (VesselBuildAction action : testflightActions)
-               {
-                   actions.add(new VesselBuildAction(action));
-               }
-               break;
-           }
+            actions.add(new VesselBuildAction(action));
         }
-
         return actions;
     }
 
     @Extension // This indicates to Jenkins that this is an implementation of an extension point.
+    @Symbol("vessel")
     public static final class DescriptorImpl extends BuildStepDescriptor<Publisher>
     {
+        private int chunkSizeMb;
+        private int parallelChunks = 1;
+        private int maxParallelUploads = 4;
+        private int maxUploadsPerApiKey = 2;
+        private int ipaSearchDepth = 8;
+        private boolean pickNewestIpa;
+        private boolean presizedBody;
+        private boolean deltaUploads;
+        private int deltaThresholdPercent = 50;
+        private int bandwidthLimitKb;
+        private String apiKeyShares;
+        private String releaseBranchPattern;
+        private int releaseWeight = 4;
+        private String transport;
+        private int connectTimeoutSeconds = 30;
+        private int readTimeoutSeconds = 300;
+        private int uploadTimeoutMinutes = 60;
+        private int maxAttempts = 4;
+        private int breakerThreshold = 5;
+        private int breakerOpenSeconds = 60;
+        private String endpoints;
+        
         public DescriptorImpl() {
             super(VesselRecorder.class);
             load();
+            // Shares saved before the keys were hashed
+            String shares = hashApiKeyShares(apiKeyShares);
+            if (shares != null && !shares.equals(apiKeyShares)) {
+                apiKeyShares = shares;
+                save();
+            }
+            UploadScheduler.get().setLimits(maxParallelUploads, maxUploadsPerApiKey);
+            BandwidthLimiter.get().setRate(bandwidthLimitKb * 1024L);
+            CircuitBreaker.get().configure(breakerThreshold, breakerOpenSeconds * 1000L);
+            EndpointSelector.get().configure(getEndpointList(), transport);
         }
                 
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
@@ -364,9 +1026,329 @@ public class VesselRecorder extends Recorder
             // XXX is this now the right style?
             req.bindJSON(this,json);
             save();
+            UploadScheduler.get().setLimits(maxParallelUploads, maxUploadsPerApiKey);
+            BandwidthLimiter.get().setRate(bandwidthLimitKb * 1024L);
+            CircuitBreaker.get().configure(breakerThreshold, breakerOpenSeconds * 1000L);
+            EndpointSelector.get().configure(getEndpointList(), transport);
             return true;
         }
                 
+        /**
+         * Size of the chunks of a resumable upload, 0 sends the file in one request.
+         */
+        public int getChunkSizeMb() {
+            return chunkSizeMb;
+        }
+
+        public void setChunkSizeMb(int chunkSizeMb) {
+            this.chunkSizeMb = Math.max(0, chunkSizeMb);
+        }
+
+        public int getParallelChunks() {
+            return parallelChunks;
+        }
+
+        public void setParallelChunks(int parallelChunks) {
+            this.parallelChunks = Math.max(1, parallelChunks);
+        }
+
+        /**
+         * Upper bound of uploads running at the same time on this master.
+         */
+        public int getMaxParallelUploads() {
+            return maxParallelUploads;
+        }
+
+        public void setMaxParallelUploads(int maxParallelUploads) {
+            this.maxParallelUploads = Math.max(1, maxParallelUploads);
+        }
+
+        public int getMaxUploadsPerApiKey() {
+            return maxUploadsPerApiKey;
+        }
+
+        public void setMaxUploadsPerApiKey(int maxUploadsPerApiKey) {
+            this.maxUploadsPerApiKey = Math.max(1, maxUploadsPerApiKey);
+        }
+
+        /**
+         * Directory levels searched below the workspace when no artifact path is set.
+         */
+        public int getIpaSearchDepth() {
+            return ipaSearchDepth;
+        }
+
+        public void setIpaSearchDepth(int ipaSearchDepth) {
+            this.ipaSearchDepth = Math.max(0, ipaSearchDepth);
+        }
+
+        public boolean getPickNewestIpa() {
+            return pickNewestIpa;
+        }
+
+        public void setPickNewestIpa(boolean pickNewestIpa) {
+            this.pickNewestIpa = pickNewestIpa;
+        }
+
+        public ListBoxModel doFillPartialFailureItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Fail the build", "");
+            items.add("Mark the build unstable", PARTIAL_FAILURE_UNSTABLE);
+            items.add("Ignore the failed uploads", PARTIAL_FAILURE_IGNORE);
+            return items;
+        }
+
+        public ListBoxModel doFillVersionCheckItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Upload anyway", "");
+            items.add("Fail the build without uploading", VERSION_CHECK_FAIL);
+            items.add("Skip the upload", VERSION_CHECK_SKIP);
+            return items;
+        }
+
+        public boolean getPresizedBody() {
+            return presizedBody;
+        }
+
+        public void setPresizedBody(boolean presizedBody) {
+            this.presizedBody = presizedBody;
+        }
+
+        public boolean getDeltaUploads() {
+            return deltaUploads;
+        }
+
+        public void setDeltaUploads(boolean deltaUploads) {
+            this.deltaUploads = deltaUploads;
+        }
+
+        public int getDeltaThresholdPercent() {
+            return deltaThresholdPercent;
+        }
+
+        public void setDeltaThresholdPercent(int deltaThresholdPercent) {
+            this.deltaThresholdPercent = Math.max(0, Math.min(100, deltaThresholdPercent));
+        }
+
+        /**
+         * The {@link HttpTransport} uploads go through, null for the default.
+         */
+        public String getTransport() {
+            return transport;
+        }
+
+        public void setTransport(String transport) {
+            this.transport = transport;
+        }
+
+        public ListBoxModel doFillTransportItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("commons-httpclient", HttpTransport.COMMONS);
+            items.add("JDK HttpURLConnection", HttpTransport.URL_CONNECTION);
+            return items;
+        }
+
+        /**
+         * Timeouts of a single request, 0 waits forever.
+         */
+        public int getConnectTimeoutSeconds() {
+            return connectTimeoutSeconds;
+        }
+
+        public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+            this.connectTimeoutSeconds = Math.max(0, connectTimeoutSeconds);
+        }
+
+        public int getReadTimeoutSeconds() {
+            return readTimeoutSeconds;
+        }
+
+        public void setReadTimeoutSeconds(int readTimeoutSeconds) {
+            this.readTimeoutSeconds = Math.max(0, readTimeoutSeconds);
+        }
+
+        /**
+         * Time an upload may take with all its requests and retries, 0 is unlimited.
+         */
+        public int getUploadTimeoutMinutes() {
+            return uploadTimeoutMinutes;
+        }
+
+        public void setUploadTimeoutMinutes(int uploadTimeoutMinutes) {
+            this.uploadTimeoutMinutes = Math.max(0, uploadTimeoutMinutes);
+        }
+
+        /**
+         * Tries per request when it fails in a way worth retrying, 1 never retries.
+         */
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+        }
+
+        /**
+         * Uploads in a row that failed to reach Vessel before the {@link CircuitBreaker}
+         * opens, 0 disables it.
+         */
+        public int getBreakerThreshold() {
+            return breakerThreshold;
+        }
+
+        public void setBreakerThreshold(int breakerThreshold) {
+            this.breakerThreshold = Math.max(0, breakerThreshold);
+        }
+
+        public int getBreakerOpenSeconds() {
+            return breakerOpenSeconds;
+        }
+
+        public void setBreakerOpenSeconds(int breakerOpenSeconds) {
+            this.breakerOpenSeconds = Math.max(1, breakerOpenSeconds);
+        }
+
+        public String getBreakerStatus() {
+            return CircuitBreaker.get().getStatus();
+        }
+
+        /**
+         * Vessel endpoints, one url per line, empty for the Vessel service.
+         */
+        public String getEndpoints() {
+            return endpoints;
+        }
+
+        public void setEndpoints(String endpoints) {
+            this.endpoints = endpoints;
+        }
+
+        List<String> getEndpointList() {
+            List<String> list = new ArrayList<String>();
+            if (endpoints != null) {
+                for (String line : endpoints.split("\\r?\\n")) {
+                    line = line.trim();
+                    if (line.length() == 0)
+                        continue;
+                    // Paths below the endpoint are resolved against it
+                    list.add(line.endsWith("/") ? line : line + "/");
+                }
+            }
+            return list;
+        }
+
+        public FormValidation doCheckEndpoints(@QueryParameter String value) {
+            for (String line : value.split("\\r?\\n")) {
+                line = line.trim();
+                if (line.length() == 0)
+                    continue;
+                try {
+                    URL url = new URL(line);
+                    if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol()))
+                        return FormValidation.error("Not an http or https url: " + line);
+                } catch (MalformedURLException e) {
+                    return FormValidation.error("Not a url: " + line);
+                }
+            }
+            return FormValidation.ok();
+        }
+
+        public String getEndpointStatus() {
+            return EndpointSelector.get().getStatus();
+        }
+
+        /**
+         * Bandwidth all uploads share, in KB per second, 0 is unlimited.
+         */
+        public int getBandwidthLimitKb() {
+            return bandwidthLimitKb;
+        }
+
+        public void setBandwidthLimitKb(int bandwidthLimitKb) {
+            this.bandwidthLimitKb = Math.max(0, bandwidthLimitKb);
+        }
+
+        /**
+         * One <tt>API key = weight</tt> per line, keys not listed have weight 1. The
+         * keys are kept as their SHA-256, like in {@link VersionIndex}, and shown so.
+         */
+        public String getApiKeyShares() {
+            return apiKeyShares;
+        }
+
+        public void setApiKeyShares(String apiKeyShares) {
+            this.apiKeyShares = hashApiKeyShares(apiKeyShares);
+        }
+
+        private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+        /**
+         * Replaces the API keys of the shares by their SHA-256, keys hashed already stay.
+         */
+        static String hashApiKeyShares(String shares) {
+            if (shares == null)
+                return null;
+            StringBuilder hashed = new StringBuilder();
+            for (String line : shares.split("\\r?\\n")) {
+                int eq = line.lastIndexOf('=');
+                if (eq > 0) {
+                    String key = line.substring(0, eq).trim();
+                    if (!SHA256.matcher(key).matches())
+                        key = ArtifactInfo.sha256(key);
+                    line = key + " = " + line.substring(eq + 1).trim();
+                }
+                hashed.append(line).append('\n');
+            }
+            return hashed.toString().trim();
+        }
+
+        /**
+         * Builds whose GIT_BRANCH matches are release builds, their uploads get
+         * releaseWeight times their share.
+         */
+        public String getReleaseBranchPattern() {
+            return releaseBranchPattern;
+        }
+
+        public void setReleaseBranchPattern(String releaseBranchPattern) {
+            this.releaseBranchPattern = releaseBranchPattern;
+        }
+
+        public int getReleaseWeight() {
+            return releaseWeight;
+        }
+
+        public void setReleaseWeight(int releaseWeight) {
+            this.releaseWeight = Math.max(1, releaseWeight);
+        }
+
+        double getUploadWeight(String apiKey, String branch) {
+            double weight = 1;
+            if (apiKeyShares != null && apiKey != null) {
+                String hash = ArtifactInfo.sha256(apiKey);
+                for (String line : apiKeyShares.split("\\r?\\n")) {
+                    int eq = line.lastIndexOf('=');
+                    if (eq > 0 && line.substring(0, eq).trim().equals(hash)) {
+                        try {
+                            weight = Math.max(0.01, Double.parseDouble(line.substring(eq + 1).trim()));
+                        } catch (NumberFormatException e) {
+                            // Ignored, the key keeps weight 1
+                        }
+                    }
+                }
+            }
+            if (branch != null && releaseBranchPattern != null && !releaseBranchPattern.trim().isEmpty()) {
+                try {
+                    if (Pattern.matches(releaseBranchPattern.trim(), branch))
+                        weight *= releaseWeight;
+                } catch (PatternSyntaxException e) {
+                    // Ignored, no build counts as a release
+                }
+            }
+            return weight;
+        }
+
         /**
          * This human readable name is used in the configuration screen.
          */
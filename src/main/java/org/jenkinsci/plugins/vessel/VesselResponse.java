@@ -1,16 +1,127 @@
 package org.jenkinsci.plugins.vessel;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-public class VesselResponse {
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class VesselResponse implements Serializable {
+
+	private static final long serialVersionUID = 4L;
+
+	public boolean success;
+
+	// push.info
+	public String directDownloadUrl;
+	public String socialUrl;
+	public String versionCode;
+	public String versionName;
+	public List<String> warnings = new ArrayList<String>();
+
+	// push.errors.fielderrors, messages by field
+	public Map<String, List<String>> fieldErrors = new LinkedHashMap<String, List<String>>();
+
+	// Filled by the uploader, not part of the answer
+	public UploadTimings timings;
+	public ArchiveIndex archive;
 
-	public Map pushErrors;
-	public Map fieldErrors;
-	public Map pushInfo;
-	public Boolean success;
-	
 	public String toString() {
-	  return "Success : " + success + " pushErrors: " + pushErrors;
+	  return "Success : " + success + " fieldErrors: " + fieldErrors;
+	}
+
+	/**
+	 * Reads a response in a single pass over the stream, without building the
+	 * JSON tree.
+	 * @return null if the body is not a JSON object
+	 */
+	public static VesselResponse parse(Reader in) throws IOException, ParseException {
+	  Handler handler = new Handler();
+	  new JSONParser().parse(in, handler);
+	  return handler.object ? handler.response : null;
+	}
+
+	/**
+	 * Picks the interesting values by the path of object keys leading to them.
+	 */
+	private static class Handler implements ContentHandler {
+	  final VesselResponse response = new VesselResponse();
+	  private final List<String> keys = new ArrayList<String>();
+	  private boolean started;
+	  boolean object;
+
+	  public void startJSON() {
+	  }
+
+	  public void endJSON() {
+	  }
+
+	  public boolean startObject() {
+	    if (!started) {
+	      object = true;
+	    }
+	    started = true;
+	    return true;
+	  }
+
+	  public boolean endObject() {
+	    return true;
+	  }
+
+	  public boolean startObjectEntry(String key) {
+	    keys.add(key);
+	    return true;
+	  }
+
+	  public boolean endObjectEntry() {
+	    keys.remove(keys.size() - 1);
+	    return true;
+	  }
+
+	  public boolean startArray() {
+	    started = true;
+	    return true;
+	  }
+
+	  public boolean endArray() {
+	    return true;
+	  }
+
+	  public boolean primitive(Object value) {
+	    if (value == null) {
+	      return true;
+	    }
+	    String text = value.toString();
+	    if (keys.size() == 1 && "success".equals(keys.get(0))) {
+	      response.success = Boolean.parseBoolean(text);
+	    } else if (keys.size() == 2 && "push.info".equals(keys.get(0))) {
+	      String key = keys.get(1);
+	      if ("push.directDownloadUrl".equals(key)) {
+	        response.directDownloadUrl = text;
+	      } else if ("push.socialUrl".equals(key)) {
+	        response.socialUrl = text;
+	      } else if ("push.versionCode".equals(key)) {
+	        response.versionCode = text;
+	      } else if ("push.versionName".equals(key)) {
+	        response.versionName = text;
+	      } else if ("push.warnings".equals(key)) {
+	        response.warnings.add(text);
+	      }
+	    } else if (keys.size() == 3 && "push.errors".equals(keys.get(0)) && "fielderrors".equals(keys.get(1))) {
+	      List<String> messages = response.fieldErrors.get(keys.get(2));
+	      if (messages == null) {
+	        messages = new ArrayList<String>();
+	        response.fieldErrors.put(keys.get(2), messages);
+	      }
+	      messages.add(text);
+	    }
+	    return true;
+	  }
 	}
 }
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * A further Vessel app the artifacts go to, besides the one of the publisher.
+ * Release notes, proxy and the other settings are shared.
+ */
+public class VesselTarget extends AbstractDescribableImpl<VesselTarget>
+{
+    private final String name;
+    private final String apiKey;
+    private final String users;
+    private final String userGroups;
+
+    @DataBoundConstructor
+    public VesselTarget(String name, String apiKey, String users, String userGroups)
+    {
+        this.name = name;
+        this.apiKey = apiKey;
+        this.users = users;
+        this.userGroups = userGroups;
+    }
+
+    /**
+     * Shown on the install link and in the log, may be empty.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getApiKey()
+    {
+        return apiKey;
+    }
+
+    public String getUsers()
+    {
+        return users;
+    }
+
+    public String getUserGroups()
+    {
+        return userGroups;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<VesselTarget>
+    {
+        public String getDisplayName()
+        {
+            return "Vessel app";
+        }
+    }
+}
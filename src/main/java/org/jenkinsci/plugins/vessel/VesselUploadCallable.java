@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.vessel;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * Runs the Vessel upload on the node that holds the artifact, so the file
+ * never has to cross the remoting channel. Only the parsed
+ * {@link VesselResponse} travels back to the master, or the failure, with the
+ * timings of the upload either way.
+ */
+public class VesselUploadCallable extends MasterToSlaveFileCallable<VesselUploadCallable.Outcome> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final VesselUploader.UploadRequest request;
+    private final byte [] ca;
+    private final byte [] subclass;
+    private final TaskListener listener;
+
+    public VesselUploadCallable(VesselUploader.UploadRequest request, TaskListener listener) {
+        this.request = request;
+        this.listener = listener;
+        // The slave has no plugin directory, ship the trust material along
+        this.ca = SSLCertificateStore.getCA();
+        this.subclass = SSLCertificateStore.getSubclass();
+    }
+
+    public Outcome invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        SSLCertificateStore.install(ca, subclass);
+
+        listener.getLogger().println(f);
+
+        request.file = f;
+        VesselUploader uploader = new VesselUploader(listener.getLogger());
+        try {
+            return new Outcome(uploader.upload(request), null, uploader.getTimings());
+        } catch (ParseException e) {
+            return new Outcome(null, new IOException("Could not parse the Vessel response", e), uploader.getTimings());
+        } catch (IOException e) {
+            // Thrown from here it would reach the master wrapped, and without the timings
+            return new Outcome(null, e, uploader.getTimings());
+        }
+    }
+
+    /**
+     * The response of the upload or why it failed. A refusal by Vessel comes back
+     * as an {@link UploadException} carrying the timings.
+     */
+    public static final class Outcome implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final VesselResponse response;
+        private final IOException failure;
+        private final UploadTimings timings;
+
+        Outcome(VesselResponse response, IOException failure, UploadTimings timings) {
+            this.response = response;
+            this.failure = failure;
+            this.timings = timings;
+        }
+
+        public VesselResponse getResponse() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+
+        public UploadTimings getTimings() {
+            return timings;
+        }
+    }
+}
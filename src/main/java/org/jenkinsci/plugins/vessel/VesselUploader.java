@@ -2,30 +2,25 @@ package org.jenkinsci.plugins.vessel;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.security.GeneralSecurityException;
+import java.io.Serializable;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.List;
 
-import org.apache.commons.httpclient.Credentials;
-import org.apache.commons.httpclient.HostConfiguration;
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
-import org.apache.commons.httpclient.protocol.Protocol;
-import org.apache.commons.ssl.HttpSecureProtocol;
-import org.apache.commons.ssl.TrustMaterial;
+import org.apache.commons.httpclient.params.HttpMethodParams;
 
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 /**
@@ -34,11 +29,16 @@ import org.json.simple.parser.ParseException;
  */
 public class VesselUploader {
 	
-  final String ApiPath = "https://vessel.io/api3/deploy/upload/";
+  static final String ApiPath = "https://vessel.io/api3/deploy/upload/";
   
 	PrintStream logger = null;
 	
-    static class UploadRequest {
+	// Of the last upload, filled in as it goes
+	private UploadTimings timings = new UploadTimings();
+	
+    static class UploadRequest implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         String apiKey;
         String releaseNotes;
         File file;
@@ -46,7 +46,7 @@ public class VesselUploader {
         
         // Optional:
         String userGroups;
-        String mapping;
+        String mapping; // Proguard mapping file or dSYM directory
         String users;
         
         // Proxy Settings:
@@ -54,6 +54,38 @@ public class VesselUploader {
         String proxyUser;
         String proxyPass;
         int proxyPort;
+        
+        // Endpoint, defaults to ApiPath. Further endpoints are tried in order when
+        // the upload cannot reach one
+        String apiPath;
+        ArrayList<String> fallbackPaths;
+        
+        // Chunked upload, a chunk size of 0 sends the file in one request
+        long chunkSize;
+        int parallelChunks = 1;
+        
+        // Single request body framed up front and written in large slices
+        boolean presizedBody;
+        
+        // Delta to the archive last uploaded with this key, if the delta is at most
+        // deltaThreshold percent of the file
+        boolean delta;
+        ArchiveIndex deltaBase;
+        int deltaThreshold = 50;
+        
+        // HttpTransport engine, null for the default
+        String transport;
+        
+        // Timeouts in milliseconds, 0 waits forever. timeout bounds the whole upload,
+        // retries included, and sets deadline when the upload starts
+        int connectTimeout = 30 * 1000;
+        int readTimeout = 5 * 60 * 1000;
+        long timeout;
+        long deadline;
+        int maxAttempts = 4;
+        
+        // Master wide bandwidth share of this upload, null sends at full speed
+        BandwidthLimiter.Throttle throttle;
     }
 
     public VesselUploader(PrintStream logger) {
@@ -64,144 +96,331 @@ public class VesselUploader {
       // TODO Auto-generated constructor stub
     }
 
-    private HttpClient getSSLHttpClient() {
-      try {
-        HttpSecureProtocol f = new HttpSecureProtocol();
+    /**
+     * Connections the commons transport keeps per host/proxy route and in total. Its
+     * client is shared by every build on this JVM, routes through different proxies
+     * get separate pools. So do uploads and the probes, which connect with a shorter
+     * timeout.
+     */
+    static final int MAX_CONNECTIONS_PER_ROUTE = Integer.getInteger(VesselUploader.class.getName() + ".maxConnectionsPerRoute", 8);
+    static final int MAX_CONNECTIONS = Integer.getInteger(VesselUploader.class.getName() + ".maxConnections", 32);
 
-        byte [] caRaw = SSLCertificateStore.getCA();
-        
-        if (caRaw != null) {
-          TrustMaterial ca =  new TrustMaterial(caRaw);
-          f.addTrustMaterial(ca);
-        }
-        caRaw = SSLCertificateStore.getSubclass();
-        if (caRaw != null) {
-          TrustMaterial ca2 =  new TrustMaterial(caRaw);
-          f.addTrustMaterial(ca2);       
-        }
-        
-        Protocol trustHttps = new Protocol("https",f, 443);
-        Protocol.registerProtocol("https", trustHttps);
-        HttpClient client = new HttpClient();
-        return client;
-      } catch (GeneralSecurityException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-      return null;
+    /**
+     * Sends one request of the upload with the transport it asks for, once the
+     * backoff of its API key has passed. The caller has to release the exchange.
+     * @see RetryPolicy#send
+     */
+    static HttpTransport.Exchange send(String method, URL url, RequestEntity body, UploadRequest ur) throws IOException {
+      RetryPolicy.checkDeadline(ur);
+      RetryPolicy.awaitBackoff(ur);
+      return HttpTransport.forName(ur.transport).send(method, url, body, ur);
     }
-    
-    public VesselResponse upload(UploadRequest ur) throws IOException, org.json.simple.parser.ParseException {
 
-        HttpClient httpClient = getSSLHttpClient();
+    /**
+     * The form fields sent along with the file.
+     */
+    static List<Part> getFormParts(UploadRequest ur) {
+        ArrayList<Part> parts = new ArrayList<Part>();
         
-        // Configure the proxy if necessary
-        if(ur.proxyHost!=null && !ur.proxyHost.isEmpty() && ur.proxyPort>0) {
-            HostConfiguration config = httpClient.getHostConfiguration();
-            config.setProxy(ur.proxyHost, ur.proxyPort);
-            Credentials cred = null;
-            if(ur.proxyUser!=null && !ur.proxyUser.isEmpty()) {
-                cred = new UsernamePasswordCredentials(ur.proxyUser, ur.proxyPass);
-                httpClient.getState().setProxyCredentials(new AuthScope(ur.proxyHost, ur.proxyPort),cred);
-            }
+        String [] fields = getFormFields(ur);
+        for (int i = 0; i < fields.length; i += 2) {
+          parts.add(new StringPart(fields[i], fields[i + 1]));
+        }
+        
+        // Streamed last, its length is not known up front
+        if (ur.mapping != null && ur.mapping.length() > 0) {
+          parts.add(StreamedPart.forMapping("mapping", new File(ur.mapping)));
         }
+        return parts;
+    }
 
-        PostMethod postMethod = new PostMethod(ApiPath);
-        ArrayList<Part> parts = new ArrayList<Part>();
+    /**
+     * The text fields, names and values in pairs.
+     */
+    static String [] getFormFields(UploadRequest ur) {
+        List<String> fields = new ArrayList<String>();
         
-        parts.add(new StringPart("api_key", ur.apiKey));
-        parts.add(new StringPart("releasenotes", ur.releaseNotes));
-        parts.add(new StringPart("replace", (ur.replace != null && ur.replace) ? "true" : "false"));
-        parts.add(new FilePart("file", ur.file));
+        fields.add("api_key");
+        fields.add(ur.apiKey);
+        fields.add("releasenotes");
+        // Left out of a Pipeline call unless given
+        fields.add(ur.releaseNotes != null ? ur.releaseNotes : "");
+        fields.add("replace");
+        fields.add((ur.replace != null && ur.replace) ? "true" : "false");
         
         if (ur.users != null && ur.users.length() > 0) {
-          parts.add(new StringPart("users", ur.users));
+          fields.add("users");
+          fields.add(ur.users);
         }
         
         if (ur.userGroups != null && ur.userGroups.length() > 0) {
-          parts.add(new StringPart("groups", ur.userGroups));
-        }
-        
-        if (ur.mapping != null && ur.mapping.length() > 0) {
-          parts.add(new StringPart("mapping", ur.mapping));
+          fields.add("groups");
+          fields.add(ur.userGroups);
         }
-            
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    static MultipartRequestEntity toRequestEntity(List<Part> parts) {
         Part []partsArray = new Part[parts.size()];
         
         partsArray = parts.toArray(partsArray);
-        MultipartRequestEntity requestEntity = new MultipartRequestEntity(partsArray, postMethod.getParams());
-        postMethod.setRequestEntity(requestEntity);
+        return new MultipartRequestEntity(partsArray, new HttpMethodParams());
+    }
+
+    /**
+     * Where the time of the last upload went, failed uploads included.
+     */
+    public UploadTimings getTimings() {
+        return timings;
+    }
+
+    public VesselResponse upload(UploadRequest ur) throws IOException, org.json.simple.parser.ParseException {
+        timings = new UploadTimings();
+        try {
+          VesselResponse response = uploadToEndpoints(ur);
+          if (response != null) {
+            response.timings = timings;
+          }
+          return response;
+        } catch (UploadException e) {
+          e.setTimings(timings);
+          throw e;
+        }
+    }
+
+    private VesselResponse uploadToEndpoints(UploadRequest ur) throws IOException, org.json.simple.parser.ParseException {
+        ur.deadline = ur.timeout > 0 ? System.currentTimeMillis() + ur.timeout : 0;
+
+        // Indexed on every upload, it is the base of the next delta
+        ArchiveIndex archive = ur.delta ? ArchiveIndex.scan(ur.file) : null;
+        
+        List<String> paths = new ArrayList<String>();
+        paths.add(ur.apiPath != null ? ur.apiPath : ApiPath);
+        if (ur.fallbackPaths != null) {
+          paths.addAll(ur.fallbackPaths);
+        }
+        for (int i = 0; ; i++) {
+          String failure;
+          try {
+            return upload(new URL(paths.get(i)), archive, ur);
+          } catch (UploadException e) {
+            if (!CircuitBreaker.isGatewayError(e.getStatusCode()) || i == paths.size() - 1 || aborted()) {
+              throw e;
+            }
+            failure = "HTTP " + e.getStatusCode();
+          } catch (IOException e) {
+            // Interrupts, ClosedByInterruptException and InterruptedIOException among
+            // them, are no network failures
+            if (!CircuitBreaker.isTransportFailure(e) || i == paths.size() - 1 || aborted()) {
+              throw e;
+            }
+            failure = e.toString();
+          }
+          // The whole upload starts over, chunks and deltas stay with the endpoint they went to
+          EndpointSelector.get().markFailed(paths.get(i), failure);
+          log("Vessel endpoint " + paths.get(i) + " failed (" + failure + "), uploading to " + paths.get(i + 1));
+        }
+    }
+
+    /**
+     * An aborted build interrupts the upload, whatever the exception looks like
+     * it is no reason to go on at the next endpoint.
+     */
+    private static boolean aborted() {
+        return Thread.currentThread().isInterrupted();
+    }
+
+    private VesselResponse upload(URL url, ArchiveIndex archive, UploadRequest ur) throws IOException, org.json.simple.parser.ParseException {
+        VesselResponse response = null;
+        if (archive != null && ur.deltaBase != null) {
+          DeltaUpload delta = new DeltaUpload(url, ur, logger);
+          try {
+            response = delta.upload(archive);
+          } finally {
+            timings.add(delta.getTimings());
+          }
+        }
+        if (response == null) {
+          response = uploadFile(url, ur);
+        }
+        if (response != null) {
+          response.archive = archive;
+        }
+        return response;
+    }
+
+    private VesselResponse uploadFile(URL url, UploadRequest ur) throws IOException, org.json.simple.parser.ParseException {
+        if (ur.chunkSize > 0 && ur.file.length() > ur.chunkSize) {
+          ChunkedUpload chunked = new ChunkedUpload(url, ur, logger);
+          try {
+            if (chunked.start()) {
+              return chunked.upload();
+            }
+          } finally {
+            timings.add(chunked.getTimings());
+          }
+          log("Vessel endpoint does not support chunked uploads, sending the file in one request");
+        }
+        
+        TimedRequestEntity entity;
+        if (ur.presizedBody && (ur.mapping == null || ur.mapping.length() == 0)) {
+          // A streamed mapping has no length up front, that body stays chunked
+          entity = new TimedRequestEntity(new ArtifactRequestEntity(getFormFields(ur), "file", ur.file), ur);
+        } else {
+          List<Part> parts = getFormParts(ur);
+          parts.add(0, new FilePart("file", ur.file));
+          entity = new TimedRequestEntity(toRequestEntity(parts), ur);
+        }
         
-        int statusCode  = httpClient.executeMethod(postMethod);
+        long started = System.currentTimeMillis();
+        HttpTransport.Exchange exchange = null;
+        try {
+          exchange = RetryPolicy.send("POST", url, entity, ur, logger);
+          return readResponse(exchange);
+        } finally {
+          // Hand the connection back to the pool for keep-alive
+          if (exchange != null) {
+            exchange.release();
+          }
+          timings.add(entity.toTimings(started, System.currentTimeMillis()));
+        }
         
+    }
+
+    static VesselResponse readResponse(HttpTransport.Exchange exchange) throws IOException, ParseException {
+        int statusCode = exchange.getStatusCode();
         if (statusCode == HttpStatus.SC_OK) {
-          InputStream response = postMethod.getResponseBodyAsStream();
+          InputStream response = exchange.getResponseBodyAsStream();
           return parseVesselResponse(response);
         } else {
-          String responseString = postMethod.getResponseBodyAsString();
+          String responseString = exchange.getResponseBodyAsString();
           throw new UploadException(statusCode, responseString, null);
         }
-        
     }
 
-    //Parsing nested JSON to make life easier
-    private static VesselResponse parseVesselResponse(InputStream is) throws ParseException, IOException
+    /**
+     * Counts the body bytes and notes when writing started and ended, so a request
+     * splits into connection setup, transfer and the wait for the server. The body
+     * goes through the throttle of the upload, if it has one, and stops at its deadline.
+     */
+    static class TimedRequestEntity implements RequestEntity {
+        private final RequestEntity entity;
+        private final BandwidthLimiter.Throttle throttle;
+        private final long deadline;
+        private volatile long firstWrite;
+        private volatile long lastWritten;
+        private volatile long bytes;
+        private volatile int writes;
+        private volatile boolean written;
+
+        /**
+         * @param ur the upload, null for no throttle and deadline
+         */
+        TimedRequestEntity(RequestEntity entity, UploadRequest ur) {
+          this.entity = entity;
+          this.throttle = ur != null ? ur.throttle : null;
+          this.deadline = ur != null ? ur.deadline : 0;
+        }
+
+        public boolean isRepeatable() {
+          return entity.isRepeatable();
+        }
+
+        public void writeRequest(OutputStream out) throws IOException {
+          long now = System.currentTimeMillis();
+          if (writes++ == 0) {
+            firstWrite = now;
+          }
+          written = false;
+          try {
+            OutputStream target = throttle != null ? new BandwidthLimiter.ThrottledOutputStream(out, throttle) : out;
+            entity.writeRequest(new FilterOutputStream(target) {
+              @Override
+              public void write(int b) throws IOException {
+                checkDeadline();
+                out.write(b);
+                bytes++;
+              }
+
+              @Override
+              public void write(byte [] b, int off, int len) throws IOException {
+                checkDeadline();
+                out.write(b, off, len);
+                bytes += len;
+              }
+            });
+            written = true;
+          } finally {
+            lastWritten = System.currentTimeMillis();
+          }
+        }
+
+        private void checkDeadline() throws IOException {
+          if (deadline > 0 && System.currentTimeMillis() > deadline) {
+            throw new RetryPolicy.UploadDeadlineException("The upload did not finish in time, " + bytes + " bytes of the request were sent");
+          }
+        }
+
+        public long getContentLength() {
+          return entity.getContentLength();
+        }
+
+        public String getContentType() {
+          return entity.getContentType();
+        }
+
+        long getBytes() {
+          return bytes;
+        }
+
+        /**
+         * Whether the last write of the body ran to its end.
+         */
+        boolean isWritten() {
+          return written;
+        }
+
+        /**
+         * Body writes beyond the first, the client resent the request.
+         */
+        int getRetries() {
+          return Math.max(0, writes - 1);
+        }
+
+        /**
+         * @param started when the request was handed to the client
+         * @param answered when the response was read
+         */
+        UploadTimings toTimings(long started, long answered) {
+          UploadTimings timings = new UploadTimings();
+          if (writes > 0) {
+            timings.add(UploadTimings.Phase.CONNECT, firstWrite - started);
+            timings.add(UploadTimings.Phase.TRANSFER, lastWritten - firstWrite);
+            timings.add(UploadTimings.Phase.SERVER, answered - lastWritten);
+          } else {
+            timings.add(UploadTimings.Phase.SERVER, answered - started);
+          }
+          timings.addBytesSent(bytes);
+          timings.addRetries(getRetries());
+          return timings;
+        }
+    }
+
+    private void log(String message) {
+        if (logger != null) {
+          logger.println(message);
+        }
+    }
+
+    static VesselResponse parseVesselResponse(InputStream is) throws ParseException, IOException
     {
-         JSONParser parser = new JSONParser();
-        
-    	 Map responseMap = (Map)parser.parse(new BufferedReader(new InputStreamReader(is)));
-         
-    	 if (responseMap == null)
-    		 return null;
-
-    	 VesselResponse r = new VesselResponse();
-    	 
-         // check if errors have occurred
-         if (responseMap.containsKey("push.errors"))
-         {
-        	 r.pushErrors = (Map)parser.parse(responseMap.get("push.errors").toString());
-        	 
-        	 if (r.pushErrors.containsKey("fielderrors")){
-        		 r.fieldErrors = (Map)parser.parse(r.pushErrors.get("fielderrors").toString());
-        	 }
-         }
-         
-         if (responseMap.containsKey("push.info"))
-         	r.pushInfo = (Map)parser.parse(responseMap.get("push.info").toString());
-         
-         // append success param so we don't lose this information
-         if (responseMap.containsKey("success"))
-        	 r.success = Boolean.parseBoolean(responseMap.get("success").toString());
-         
-         return r;
+         return VesselResponse.parse(new BufferedReader(new InputStreamReader(is, "UTF-8")));
     }
 
     /**
-    // Useful for quick testing as well
-    public static void main(String[] args) throws Exception {
-    	JSONParser parser = new JSONParser();
-    	String json = "{\"push.info\":{\"push.noUsersInvited\":4,\"push.directDownloadUrl\":\"http://zubhi.co/g/xxx/\",\"push.warnings\":[\"warning1\",\"warning2\"],\"push.versionName\":\"5.0\",\"push.socialUrl\":\"http://zubhi.co/d/xxxx/\",\"push.versionCode\":\"110\",\"push.proguardEnabled\":false,},\"success\":true}";
-    	VesselResponse response = parseVesselResponse(new ByteArrayInputStream(json.getBytes()));
-    	
-    	List<String> warnings = (List<String>)response.pushInfo.get("push.warnings");
-    	
-    	json = "{\"push.errors\": {\"fielderrors\": {\"apk\": [\"Please increment version code, push with version code 1 already exist\"]}, \"no_errors\": 1}, \"success\": false}";
-    	response = parseVesselResponse(new ByteArrayInputStream(json.getBytes()));
-    	
-    	Iterator it = response.fieldErrors.entrySet().iterator();
-		while (it.hasNext()) {
-			Map.Entry pairs = (Map.Entry)it.next();
-			System.out.println("Zubhium ERROR: " + pairs.getKey() + " = " + pairs.getValue());
-		}
-    	
-    }
-
-    */
-    /**  Useful for testing */
+     * Uploads one file: <tt>apiKey releaseNotes file [userGroups [mapping]]</tt>.
+     */
     public static void main(String[] args) throws Exception {
-        
     	VesselUploader uploader = new VesselUploader();
         
         UploadRequest r = new UploadRequest();
@@ -212,12 +431,14 @@ public class VesselUploader {
         File file = new File(args[2]);
         r.file = file;
         
-        if (args.length > 4)
+        if (args.length > 3)
         	r.userGroups = args[3];
         
-        if (args.length > 5)
+        if (args.length > 4)
         	r.mapping = args[4];
         
+        r.apiPath = System.getProperty("vessel.apiPath");
+        
         VesselResponse resp = uploader.upload(r);
         System.out.println(resp.toString());
     }
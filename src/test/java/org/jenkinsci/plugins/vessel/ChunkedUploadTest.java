@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.vessel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ChunkedUploadTest {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private VesselStandInServer server;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new VesselStandInServer(0);
+        server.start();
+        byte [] content = new byte[4 * CHUNK_SIZE + 1000];
+        new Random(42).nextBytes(content);
+        file = File.createTempFile("vessel-chunked", ".apk");
+        FileUtils.writeByteArrayToFile(file, content);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    private VesselUploader.UploadRequest createRequest(String apiPath) {
+        VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
+        ur.apiKey = "chunked";
+        ur.releaseNotes = "Chunked";
+        ur.file = file;
+        ur.replace = false;
+        ur.apiPath = apiPath;
+        ur.chunkSize = CHUNK_SIZE;
+        ur.maxAttempts = 3;
+        return ur;
+    }
+
+    @Test
+    public void resumesAfterDroppedChunk() throws Exception {
+        server.dropChunks(2);
+        VesselResponse response = new VesselUploader().upload(createRequest(server.getApiPath()));
+
+        assertTrue(response.success);
+        // Five chunks, only the dropped one is sent again
+        assertEquals(6, server.getChunkRequests());
+        assertEquals(1, response.timings.getRetries());
+        assertArrayEquals(FileUtils.readFileToByteArray(file), FileUtils.readFileToByteArray(server.getArchive("chunked")));
+    }
+
+    @Test
+    public void rejectsSessionWithoutUploadId() throws Exception {
+        assertInvalidSession("{\"chunk_size\": 65536}");
+    }
+
+    @Test
+    public void rejectsSessionWithoutChunkSize() throws Exception {
+        assertInvalidSession("{\"upload_id\": \"u1\", \"chunk_size\": 0}");
+    }
+
+    private void assertInvalidSession(final String session) throws Exception {
+        HttpServer endpoint = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        endpoint.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                IOUtils.toByteArray(exchange.getRequestBody());
+                byte [] body = session.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        endpoint.start();
+        try {
+            String apiPath = "http://127.0.0.1:" + endpoint.getAddress().getPort() + "/";
+            new ChunkedUpload(new URL(apiPath), createRequest(apiPath), null).start();
+            fail("Started a session from " + session);
+        } catch (UploadException e) {
+            assertEquals(200, e.getStatusCode());
+        } finally {
+            endpoint.stop(0);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.vessel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * The same uploads through every transport.
+ */
+@RunWith(Parameterized.class)
+public class HttpTransportTest {
+
+    @Parameters
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][] {{HttpTransport.COMMONS}, {HttpTransport.URL_CONNECTION}});
+    }
+
+    private final String transport;
+    private VesselStandInServer server;
+    private File file;
+
+    public HttpTransportTest(String transport) {
+        this.transport = transport;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new VesselStandInServer(0);
+        server.start();
+        byte [] content = new byte[200 * 1024 + 17];
+        new Random(11).nextBytes(content);
+        file = File.createTempFile("vessel-transport", ".apk");
+        FileUtils.writeByteArrayToFile(file, content);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    /**
+     * Each test has a key of its own, backoffs are kept per key.
+     */
+    private VesselUploader.UploadRequest createRequest(String apiKey) {
+        VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
+        ur.apiKey = transport + "-" + apiKey;
+        ur.releaseNotes = "Through " + transport;
+        ur.file = file;
+        ur.replace = false;
+        ur.apiPath = server.getApiPath();
+        ur.transport = transport;
+        return ur;
+    }
+
+    private void assertArrived(String apiKey) throws IOException {
+        assertArrayEquals(FileUtils.readFileToByteArray(file), FileUtils.readFileToByteArray(server.getArchive(transport + "-" + apiKey)));
+    }
+
+    @Test
+    public void plain() throws Exception {
+        VesselResponse response = new VesselUploader().upload(createRequest("plain"));
+
+        assertTrue(response.success);
+        assertEquals(1, server.getRequests());
+        assertArrived("plain");
+    }
+
+    @Test
+    public void chunked() throws Exception {
+        VesselUploader.UploadRequest ur = createRequest("chunked");
+        ur.chunkSize = 64 * 1024;
+        ur.parallelChunks = 2;
+        VesselResponse response = new VesselUploader().upload(ur);
+
+        assertTrue(response.success);
+        assertEquals(4, server.getChunkRequests());
+        assertArrived("chunked");
+    }
+
+    @Test
+    public void retriedAfterGatewayError() throws Exception {
+        server.failRequests(2, 502);
+        VesselResponse response = new VesselUploader().upload(createRequest("gateway"));
+
+        assertTrue(response.success);
+        assertEquals(3, server.getRequests());
+        assertEquals(2, response.timings.getRetries());
+        assertArrived("gateway");
+    }
+
+    @Test
+    public void retriedAfterDroppedConnection() throws Exception {
+        server.dropUploads(1);
+        VesselResponse response = new VesselUploader().upload(createRequest("dropped"));
+
+        assertTrue(response.success);
+        assertEquals(2, server.getRequests());
+        assertArrived("dropped");
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws Exception {
+        server.failRequests(1, 400);
+        try {
+            new VesselUploader().upload(createRequest("rejected"));
+            fail("Uploaded despite a 400");
+        } catch (UploadException e) {
+            assertEquals(400, e.getStatusCode());
+            assertTrue(e.getTimings().getBytesSent() > 0);
+        }
+        assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void readTimeoutAfterWholeBodyIsNotRetried() throws Exception {
+        server.stallAnswers(1, 3000);
+        VesselUploader.UploadRequest ur = createRequest("stalled");
+        ur.readTimeout = 1000;
+        try {
+            new VesselUploader().upload(ur);
+            fail("Answered despite the stall");
+        } catch (RetryPolicy.UnansweredException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertEquals(1, server.getRequests());
+        assertArrived("stalled");
+    }
+
+    @Test
+    public void failedUploadKeepsTimings() throws Exception {
+        server.dropUploads(2);
+        VesselUploader.UploadRequest ur = createRequest("failed");
+        ur.maxAttempts = 2;
+        VesselUploader uploader = new VesselUploader();
+        try {
+            uploader.upload(ur);
+            fail("Uploaded despite dropped connections");
+        } catch (IOException e) {
+            assertTrue(RetryPolicy.isNetworkFailure(e));
+        }
+        assertEquals(2, server.getRequests());
+        assertEquals(1, uploader.getTimings().getRetries());
+        assertTrue(uploader.getTimings().getBytesSent() > 0);
+    }
+}
@@ -0,0 +1,136 @@
+package org.jenkinsci.plugins.vessel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+public class VesselResponseTest {
+
+    // As Vessel sends it, trailing comma included
+    private static final String SUCCESS = "{\"push.info\":{\"push.noUsersInvited\":4,\"push.directDownloadUrl\":\"http://zubhi.co/g/xxx/\","
+            + "\"push.warnings\":[\"warning1\",\"warning2\"],\"push.versionName\":\"5.0\",\"push.socialUrl\":\"http://zubhi.co/d/xxxx/\","
+            + "\"push.versionCode\":\"110\",\"push.proguardEnabled\":false,},\"success\":true}";
+
+    private static final String EXISTING_VERSION = "{\"push.errors\": {\"fielderrors\": {\"apk\": [\"Please increment version code, "
+            + "push with version code 1 already exist\"]}, \"no_errors\": 1}, \"success\": false}";
+
+    private static VesselResponse parse(String json) throws Exception {
+        return VesselUploader.parseVesselResponse(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void success() throws Exception {
+        VesselResponse response = parse(SUCCESS);
+
+        assertTrue(response.success);
+        assertEquals("http://zubhi.co/g/xxx/", response.directDownloadUrl);
+        assertEquals("http://zubhi.co/d/xxxx/", response.socialUrl);
+        assertEquals("110", response.versionCode);
+        assertEquals("5.0", response.versionName);
+        assertEquals(Arrays.asList("warning1", "warning2"), response.warnings);
+        assertTrue(response.fieldErrors.isEmpty());
+    }
+
+    @Test
+    public void fieldErrors() throws Exception {
+        VesselResponse response = parse("{\"push.errors\": {\"fielderrors\": {\"apk\": [\"Invalid file\"], "
+                + "\"api_key\": [\"Unknown key\", \"Key disabled\"]}, \"no_errors\": 3}, \"success\": false}");
+
+        assertFalse(response.success);
+        assertEquals(Arrays.asList("apk", "api_key"), Arrays.asList(response.fieldErrors.keySet().toArray()));
+        assertEquals(Arrays.asList("Invalid file"), response.fieldErrors.get("apk"));
+        assertEquals(Arrays.asList("Unknown key", "Key disabled"), response.fieldErrors.get("api_key"));
+        assertNull(response.versionCode);
+    }
+
+    @Test
+    public void existingVersion() throws Exception {
+        VesselResponse response = parse(EXISTING_VERSION);
+
+        assertFalse(response.success);
+        assertEquals(Collections.singletonList("Please increment version code, push with version code 1 already exist"),
+                response.fieldErrors.get("apk"));
+    }
+
+    @Test
+    public void typedValues() throws Exception {
+        // Numbers and booleans where strings are expected, keys of the same name elsewhere
+        VesselResponse response = parse("{\"push.info\":{\"push.versionCode\":110,\"push.versionName\":5.5,"
+                + "\"success\":false,\"nested\":{\"push.socialUrl\":\"wrong\"}},\"success\":\"true\"}");
+
+        assertTrue(response.success);
+        assertEquals("110", response.versionCode);
+        assertEquals("5.5", response.versionName);
+        assertNull(response.socialUrl);
+    }
+
+    @Test
+    public void notAnObject() throws Exception {
+        assertNull(parse("[{\"success\":true}]"));
+        assertNull(parse("\"success\""));
+    }
+
+    @Test(expected = ParseException.class)
+    public void malformed() throws Exception {
+        parse("{\"success\":true, \"push.info\": {\"push.versionCode\": ");
+    }
+
+    @Test(expected = ParseException.class)
+    public void garbage() throws Exception {
+        parse("<html><body>502 Bad Gateway</body></html>");
+    }
+
+    @Test
+    public void serialized() throws Exception {
+        assertEquals(4L, ObjectStreamClass.lookup(VesselResponse.class).getSerialVersionUID());
+
+        File zip = File.createTempFile("vessel-response", ".apk");
+        try {
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+            out.putNextEntry(new ZipEntry("classes.dex"));
+            out.write(new byte[1000]);
+            out.close();
+
+            VesselResponse response = parse(SUCCESS);
+            response.timings = new UploadTimings();
+            response.timings.add(UploadTimings.Phase.TRANSFER, 1500);
+            response.timings.addBytesSent(2048);
+            response.timings.addRetries(1);
+            response.archive = ArchiveIndex.scan(zip);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(response);
+            oos.close();
+            VesselResponse copy = (VesselResponse)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+            assertTrue(copy.success);
+            assertEquals("110", copy.versionCode);
+            assertEquals(response.warnings, copy.warnings);
+            assertEquals(1500, copy.timings.getMillis(UploadTimings.Phase.TRANSFER));
+            assertEquals(2048, copy.timings.getBytesSent());
+            assertEquals(1, copy.timings.getRetries());
+            assertEquals(response.archive.getSha256(), copy.archive.getSha256());
+            assertEquals(1, copy.archive.entries.size());
+        } finally {
+            zip.delete();
+        }
+    }
+}
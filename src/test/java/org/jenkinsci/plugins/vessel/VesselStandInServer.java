@@ -0,0 +1,770 @@
+package org.jenkinsci.plugins.vessel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Vessel upload API, to try uploads without the real service.
+ * Used by the tests, and by the benchmarks through the test jar of the plugin.
+ * Serves the single request upload, the chunked protocol of {@link ChunkedUpload} and
+ * the delta protocol of {@link DeltaUpload}, keeping the last archive per API key.
+ * Faults can be injected for load and failure testing: latency, a bandwidth limit,
+ * connections dropped halfway through the body, error statuses and rejected builds.
+ */
+public class VesselStandInServer {
+
+    public static final String API_PATH = "/api3/deploy/upload/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final File storage;
+    private final Random random = new Random();
+
+    private final Map<String, ChunkSession> sessions = new ConcurrentHashMap<String, ChunkSession>();
+    private final Map<String, Integer> versionCodes = new HashMap<String, Integer>();
+    private final Map<String, StoredArchive> archives = new HashMap<String, StoredArchive>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    // Behaviour, may be changed while running
+    volatile boolean chunking = true;
+    volatile boolean deltas = true;
+    volatile double dropRate;
+    volatile long latency;
+    volatile long bandwidth;
+    volatile double errorRate;
+    volatile int errorStatus = 503;
+    volatile double rejectRate;
+    // Chunks whose next PUT is dropped, whatever the drop rate
+    private final Set<Integer> droppedChunks = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger chunkRequests = new AtomicInteger();
+    // Requests still to fail, whatever the rates
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus;
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicInteger stalls = new AtomicInteger();
+    private volatile long stallMillis;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public VesselStandInServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext(API_PATH, new ApiHandler());
+        server.setExecutor(executor);
+        storage = File.createTempFile("vessel-standin", null);
+        storage.delete();
+        storage.mkdirs();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        FileUtils.deleteQuietly(storage);
+    }
+
+    /**
+     * The url to put into {@link VesselUploader.UploadRequest#apiPath}.
+     */
+    public String getApiPath() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PATH;
+    }
+
+    public void setChunking(boolean chunking) {
+        this.chunking = chunking;
+    }
+
+    /**
+     * Without deltas <tt>delta/</tt> is answered with a 404, like on an endpoint that predates them.
+     */
+    public void setDeltas(boolean deltas) {
+        this.deltas = deltas;
+    }
+
+    /**
+     * Fraction of uploads and chunk requests whose connection is closed halfway through the body.
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * Milliseconds every request waits before it is handled.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Bytes per second each request body is read at, 0 for no limit.
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * Fraction of requests answered with the given status, 429 comes with a Retry-After.
+     */
+    public void setErrorRate(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Fraction of complete uploads refused with field errors, as Vessel does for a
+     * version code it already has.
+     */
+    public void setRejectRate(double rejectRate) {
+        this.rejectRate = rejectRate;
+    }
+
+    /**
+     * Answers the next requests with the status.
+     */
+    public void failRequests(int count, int status) {
+        failureStatus = status;
+        failures.set(count);
+    }
+
+    /**
+     * Drops the connection of the next single request uploads halfway through the body.
+     */
+    public void dropUploads(int count) {
+        drops.set(count);
+    }
+
+    /**
+     * Stores the next single request uploads, then waits before answering them.
+     */
+    public void stallAnswers(int count, long millis) {
+        stallMillis = millis;
+        stalls.set(count);
+    }
+
+    /**
+     * Requests so far, of any kind.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Drops the connection of the next PUT of each chunk, once.
+     */
+    public void dropChunks(Integer... indexes) {
+        droppedChunks.addAll(Arrays.asList(indexes));
+    }
+
+    /**
+     * PUT requests of chunks so far, dropped ones included.
+     */
+    public int getChunkRequests() {
+        return chunkRequests.get();
+    }
+
+    /**
+     * The archive last accepted for the API key, null if there is none.
+     */
+    public synchronized File getArchive(String apiKey) {
+        StoredArchive stored = archives.get(apiKey);
+        return stored != null ? stored.file : null;
+    }
+
+    private class ApiHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath().substring(API_PATH.length());
+                String method = exchange.getRequestMethod();
+                if (latency > 0) {
+                    try {
+                        Thread.sleep(latency);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                requests.incrementAndGet();
+                boolean fail = take(failures);
+                if (fail || chance(errorRate)) {
+                    int status = fail ? failureStatus : errorStatus;
+                    IOUtils.copy(getRequestBody(exchange), new ByteArrayOutputStream());
+                    if (status == 429) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                    }
+                    respond(exchange, status, "{\"success\":false}");
+                } else if (path.length() == 0 && "POST".equals(method)) {
+                    handleUpload(exchange);
+                } else if (path.equals("delta/") && "POST".equals(method) && deltas) {
+                    handleDelta(exchange);
+                } else if (path.startsWith("chunked") && chunking) {
+                    handleChunked(exchange, path.substring("chunked".length()).split("/"), method);
+                } else {
+                    respond(exchange, 404, "{\"success\":false}");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void handleUpload(HttpExchange exchange) throws IOException {
+        if (take(drops) || chance(dropRate)) {
+            dropHalfway(exchange, getContentLength(exchange));
+            return;
+        }
+        Map<String, String> fields = new HashMap<String, String>();
+        Map<String, File> files = new HashMap<String, File>();
+        readMultipart(exchange, fields, files);
+        try {
+            File file = files.get("file");
+            if (file == null) {
+                respond(exchange, 400, "{\"success\":false}");
+                return;
+            }
+            files.remove("file");
+            String answer = accept(fields.get("api_key"), file);
+            if (take(stalls)) {
+                try {
+                    Thread.sleep(stallMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            respond(exchange, 200, answer);
+        } finally {
+            for (File f : files.values()) {
+                f.delete();
+            }
+        }
+    }
+
+    private void handleChunked(HttpExchange exchange, String [] path, String method) throws IOException {
+        // path is "", "", id[, index or "complete"]
+        if (path.length <= 1 && "POST".equals(method)) {
+            Map<String, String> fields = new HashMap<String, String>();
+            readMultipart(exchange, fields, new HashMap<String, File>());
+            ChunkSession session = new ChunkSession(Long.parseLong(fields.get("size")), Long.parseLong(fields.get("chunk_size")));
+            String id = "u" + ids.incrementAndGet();
+            sessions.put(id, session);
+            JSONObject json = new JSONObject();
+            json.put("upload_id", id);
+            json.put("chunk_size", session.chunkSize);
+            respond(exchange, 200, json.toJSONString());
+            return;
+        }
+
+        ChunkSession session = path.length > 1 ? sessions.get(path[1]) : null;
+        if (session == null) {
+            respond(exchange, 404, "{\"success\":false}");
+        } else if (path.length == 2 && "GET".equals(method)) {
+            JSONObject json = new JSONObject();
+            json.put("received", session.getReceived());
+            respond(exchange, 200, json.toJSONString());
+        } else if (path.length == 3 && "complete".equals(path[2]) && "POST".equals(method)) {
+            Map<String, String> fields = new HashMap<String, String>();
+            readMultipart(exchange, fields, new HashMap<String, File>());
+            if (!session.isComplete()) {
+                respond(exchange, 409, "{\"success\":false}");
+                return;
+            }
+            sessions.remove(path[1]);
+            respond(exchange, 200, accept(fields.get("api_key"), session.data));
+        } else if (path.length == 3 && "PUT".equals(method)) {
+            int index = Integer.parseInt(path[2]);
+            chunkRequests.incrementAndGet();
+            if (droppedChunks.remove(index) || chance(dropRate)) {
+                dropHalfway(exchange, session.getChunkLength(index));
+                return;
+            }
+            session.write(index, IOUtils.toByteArray(getRequestBody(exchange)));
+            respond(exchange, 200, "{\"success\":true}");
+        } else {
+            respond(exchange, 405, "{\"success\":false}");
+        }
+    }
+
+    /**
+     * Rebuilds the archive from the last one of the API key and the delta part.
+     */
+    private void handleDelta(HttpExchange exchange) throws IOException {
+        Map<String, String> fields = new HashMap<String, String>();
+        Map<String, File> files = new HashMap<String, File>();
+        readMultipart(exchange, fields, files);
+        File rebuilt = null;
+        try {
+            StoredArchive base;
+            synchronized (this) {
+                base = archives.get(fields.get("api_key"));
+            }
+            File delta = files.get("delta");
+            if (base == null || !base.sha256.equals(fields.get("base")) || delta == null || fields.get("manifest") == null) {
+                respond(exchange, 409, "{\"success\":false}");
+                return;
+            }
+            Map manifest = (Map)new JSONParser().parse(fields.get("manifest"));
+            rebuilt = File.createTempFile("archive", ".bin", storage);
+            MessageDigest digest = ArtifactInfo.newSha256();
+            RandomAccessFile from = new RandomAccessFile(base.file, "r");
+            InputStream data = new BufferedInputStream(new FileInputStream(delta));
+            OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(rebuilt)), digest);
+            try {
+                for (Object item : (List)manifest.get("segments")) {
+                    List segment = (List)item;
+                    if ("copy".equals(segment.get(0))) {
+                        from.seek(((Number)segment.get(1)).longValue());
+                        copy(new RandomAccessFileInputStream(from), out, ((Number)segment.get(2)).longValue());
+                    } else {
+                        copy(data, out, ((Number)segment.get(1)).longValue());
+                    }
+                }
+            } finally {
+                out.close();
+                data.close();
+                from.close();
+            }
+            if (!ArtifactInfo.toHex(digest.digest()).equals(manifest.get("sha256"))) {
+                respond(exchange, 400, "{\"success\":false}");
+                return;
+            }
+            respond(exchange, 200, accept(fields.get("api_key"), rebuilt));
+            rebuilt = null;
+        } catch (ParseException e) {
+            respond(exchange, 400, "{\"success\":false}");
+        } finally {
+            if (rebuilt != null) {
+                rebuilt.delete();
+            }
+            for (File f : files.values()) {
+                f.delete();
+            }
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte [] buffer = new byte[64 * 1024];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int)Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    private static class RandomAccessFileInputStream extends InputStream {
+        private final RandomAccessFile file;
+
+        RandomAccessFileInputStream(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return file.read();
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            return file.read(b, off, len);
+        }
+    }
+
+    private static class StoredArchive {
+        final File file;
+        final String sha256;
+
+        StoredArchive(File file) throws IOException {
+            this.file = file;
+            this.sha256 = ArtifactInfo.sha256(file);
+        }
+    }
+
+    /**
+     * Answers a finished upload, an accepted archive becomes the base of the next delta.
+     */
+    private String accept(String apiKey, File archive) throws IOException {
+        if (chance(rejectRate)) {
+            archive.delete();
+            return rejectResponse(apiKey);
+        }
+        StoredArchive stored = new StoredArchive(archive);
+        synchronized (this) {
+            StoredArchive previous = archives.put(apiKey, stored);
+            if (previous != null) {
+                previous.file.delete();
+            }
+        }
+        return pushResponse(apiKey);
+    }
+
+    private synchronized String rejectResponse(String apiKey) {
+        JSONArray messages = new JSONArray();
+        messages.add("Please increment version code, push with version code " + versionCodes.get(apiKey) + " already exist");
+        JSONObject fieldErrors = new JSONObject();
+        fieldErrors.put("apk", messages);
+        JSONObject errors = new JSONObject();
+        errors.put("fielderrors", fieldErrors);
+        errors.put("no_errors", 1);
+        JSONObject json = new JSONObject();
+        json.put("push.errors", errors);
+        json.put("success", false);
+        return json.toJSONString();
+    }
+
+    private synchronized String pushResponse(String apiKey) {
+        Integer versionCode = versionCodes.get(apiKey);
+        versionCode = versionCode == null ? 1 : versionCode + 1;
+        versionCodes.put(apiKey, versionCode);
+
+        JSONObject info = new JSONObject();
+        info.put("push.directDownloadUrl", "http://127.0.0.1:" + server.getAddress().getPort() + "/g/" + ids.incrementAndGet() + "/");
+        info.put("push.socialUrl", "http://127.0.0.1:" + server.getAddress().getPort() + "/d/" + ids.get() + "/");
+        info.put("push.versionCode", String.valueOf(versionCode));
+        info.put("push.versionName", "1.0." + versionCode);
+        info.put("push.warnings", new JSONArray());
+        info.put("push.noUsersInvited", 0);
+        JSONObject json = new JSONObject();
+        json.put("push.info", info);
+        json.put("success", true);
+        return json.toJSONString();
+    }
+
+    private class ChunkSession {
+        final long size;
+        final long chunkSize;
+        final File data;
+        private final BitSet received = new BitSet();
+
+        ChunkSession(long size, long chunkSize) throws IOException {
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.data = File.createTempFile("chunked", ".bin", storage);
+        }
+
+        long getChunkLength(int index) {
+            return Math.min(chunkSize, size - index * chunkSize);
+        }
+
+        synchronized void write(int index, byte [] chunk) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(data, "rw");
+            try {
+                raf.seek(index * chunkSize);
+                raf.write(chunk);
+            } finally {
+                raf.close();
+            }
+            received.set(index);
+        }
+
+        synchronized JSONArray getReceived() {
+            JSONArray list = new JSONArray();
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+                list.add(i);
+            }
+            return list;
+        }
+
+        synchronized boolean isComplete() {
+            return received.nextClearBit(0) * chunkSize >= size;
+        }
+    }
+
+    private boolean chance(double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    /**
+     * Counts down to 0.
+     * @return false if it already was 0
+     */
+    private static boolean take(AtomicInteger count) {
+        while (true) {
+            int left = count.get();
+            if (left <= 0) {
+                return false;
+            }
+            if (count.compareAndSet(left, left - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static long getContentLength(HttpExchange exchange) {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        // Chunked bodies have no length, hang up after some of it
+        return length != null ? Long.parseLong(length) : 64 * 1024;
+    }
+
+    /**
+     * Reads part of the body and hangs up, the client sees a broken connection.
+     */
+    private void dropHalfway(HttpExchange exchange, long length) throws IOException {
+        InputStream in = getRequestBody(exchange);
+        byte [] buffer = new byte[8192];
+        long half = length / 2;
+        int read;
+        while (half > 0 && (read = in.read(buffer, 0, (int)Math.min(buffer.length, half))) >= 0) {
+            half -= read;
+        }
+    }
+
+    private InputStream getRequestBody(HttpExchange exchange) {
+        InputStream in = exchange.getRequestBody();
+        long limit = bandwidth;
+        return limit > 0 ? new ThrottledInputStream(in, limit) : in;
+    }
+
+    /**
+     * Holds reads back to a number of bytes per second.
+     */
+    static class ThrottledInputStream extends FilterInputStream {
+        private final long bytesPerSecond;
+        private final long started = System.nanoTime();
+        private long count;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttle(1);
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            // Small slices keep the rate smooth
+            len = (int)Math.min(len, Math.max(1, bytesPerSecond / 10));
+            throttle(len);
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        private void throttle(int next) throws IOException {
+            long due = (count + next) * 1000000000L / bytesPerSecond;
+            long wait = due - (System.nanoTime() - started);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                } catch (InterruptedException e) {
+                    throw (IOException)new InterruptedIOException().initCause(e);
+                }
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte [] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * Streaming multipart/form-data reader, text fields end up in fields and
+     * file parts in temporary files.
+     */
+    private void readMultipart(HttpExchange exchange, Map<String, String> fields, Map<String, File> files) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        int at = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (at < 0) {
+            return;
+        }
+        String boundary = contentType.substring(at + "boundary=".length()).replace("\"", "");
+        byte [] delimiter = ("\r\n--" + boundary).getBytes("US-ASCII");
+
+        // The body starts with the boundary itself, prefix the missing line break
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream("\r\n".getBytes("US-ASCII")),
+                new BufferedInputStream(getRequestBody(exchange), 64 * 1024));
+        if (!copyUntil(in, delimiter, new ByteArrayOutputStream())) {
+            return;
+        }
+        while (true) {
+            // "--" closes the body, otherwise a line break and the part headers follow
+            int first = in.read();
+            int second = in.read();
+            if (first != '\r' || second != '\n') {
+                return;
+            }
+            String name = null;
+            String fileName = null;
+            String line;
+            while ((line = readLine(in)).length() > 0) {
+                if (line.toLowerCase().startsWith("content-disposition")) {
+                    name = getParameter(line, "name");
+                    fileName = getParameter(line, "filename");
+                }
+            }
+            if (fileName != null) {
+                File file = File.createTempFile("part", ".bin", storage);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+                try {
+                    copyUntil(in, delimiter, out);
+                } finally {
+                    out.close();
+                }
+                files.put(name, file);
+            } else {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                copyUntil(in, delimiter, out);
+                fields.put(name, out.toString("UTF-8"));
+            }
+        }
+    }
+
+    /**
+     * Copies until the delimiter, which is not copied.
+     * @return false if the stream ended first
+     */
+    static boolean copyUntil(InputStream in, byte [] delimiter, OutputStream out) throws IOException {
+        // The delimiter holds a single '\r', at its start, so a failed match can only restart there
+        int matched = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == (delimiter[matched] & 0xff)) {
+                if (++matched == delimiter.length) {
+                    return true;
+                }
+                continue;
+            }
+            if (matched > 0) {
+                out.write(delimiter, 0, matched);
+                matched = 0;
+                if (b == (delimiter[0] & 0xff)) {
+                    matched = 1;
+                    continue;
+                }
+            }
+            out.write(b);
+        }
+        out.write(delimiter, 0, matched);
+        return false;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.append((char)b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static String getParameter(String header, String name) {
+        String marker = " " + name + "=\"";
+        int start = header.indexOf(marker);
+        if (start < 0) {
+            marker = ";" + name + "=\"";
+            start = header.indexOf(marker);
+        }
+        if (start < 0) {
+            return null;
+        }
+        start += marker.length();
+        return header.substring(start, header.indexOf('"', start));
+    }
+
+    /**
+     * Applies <tt>--name=value</tt> options: port, no-chunking, drop-rate, latency (ms),
+     * bandwidth (bytes/s), error-rate, error-status and reject-rate.
+     * @return the options not understood
+     */
+    static Map<String, String> configure(VesselStandInServer server, Map<String, String> options) {
+        Map<String, String> rest = new HashMap<String, String>(options);
+        if (rest.remove("no-chunking") != null) {
+            server.setChunking(false);
+        }
+        String value;
+        if ((value = rest.remove("drop-rate")) != null) {
+            server.setDropRate(Double.parseDouble(value));
+        }
+        if ((value = rest.remove("latency")) != null) {
+            server.setLatency(Long.parseLong(value));
+        }
+        if ((value = rest.remove("bandwidth")) != null) {
+            server.setBandwidth(Long.parseLong(value));
+        }
+        String status = rest.remove("error-status");
+        if ((value = rest.remove("error-rate")) != null) {
+            server.setErrorRate(Double.parseDouble(value), status != null ? Integer.parseInt(status) : 503);
+        }
+        if ((value = rest.remove("reject-rate")) != null) {
+            server.setRejectRate(Double.parseDouble(value));
+        }
+        return rest;
+    }
+
+    /**
+     * Runs the stand-in until killed, see {@link #configure} for the options.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLineSupport.parseOptions(args);
+        String port = options.remove("port");
+        VesselStandInServer server = new VesselStandInServer(port != null ? Integer.parseInt(port) : 0);
+        Map<String, String> unknown = configure(server, options);
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + unknown.keySet());
+        }
+        server.start();
+        System.out.println("Vessel stand-in listening on " + server.getApiPath());
+    }
+}
@@ -0,0 +1,191 @@
+package org.jenkinsci.plugins.vessel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VesselUploaderTest {
+
+    private VesselStandInServer server;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new VesselStandInServer(0);
+        server.start();
+        byte [] content = new byte[300 * 1024];
+        new Random(7).nextBytes(content);
+        file = File.createTempFile("vessel-upload", ".apk");
+        FileUtils.writeByteArrayToFile(file, content);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    private VesselUploader.UploadRequest createRequest() {
+        VesselUploader.UploadRequest ur = new VesselUploader.UploadRequest();
+        ur.apiKey = "round-trip";
+        ur.releaseNotes = "Round trip";
+        ur.file = file;
+        ur.replace = false;
+        ur.apiPath = server.getApiPath();
+        return ur;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        VesselResponse response = new VesselUploader().upload(createRequest());
+
+        assertTrue(response.success);
+        assertEquals("1", response.versionCode);
+        assertNotNull(response.directDownloadUrl);
+        assertArrayEquals(FileUtils.readFileToByteArray(file), FileUtils.readFileToByteArray(server.getArchive("round-trip")));
+        assertTrue(response.timings.getBytesSent() > file.length());
+
+        assertEquals("2", new VesselUploader().upload(createRequest()).versionCode);
+    }
+
+    @Test
+    public void roundTripInSlices() throws Exception {
+        VesselUploader.UploadRequest ur = createRequest();
+        ur.presizedBody = true;
+
+        assertTrue(new VesselUploader().upload(ur).success);
+        assertArrayEquals(FileUtils.readFileToByteArray(file), FileUtils.readFileToByteArray(server.getArchive("round-trip")));
+    }
+
+    @Test
+    public void withoutReleaseNotes() throws Exception {
+        VesselUploader.UploadRequest ur = createRequest();
+        ur.releaseNotes = null;
+        assertTrue(new VesselUploader().upload(ur).success);
+
+        ur.presizedBody = true;
+        assertTrue(new VesselUploader().upload(ur).success);
+        assertArrayEquals(FileUtils.readFileToByteArray(file), FileUtils.readFileToByteArray(server.getArchive("round-trip")));
+    }
+
+    @Test
+    public void failsOver() throws Exception {
+        VesselUploader.UploadRequest ur = createRequest();
+        ur.apiPath = getClosedEndpoint();
+        ur.fallbackPaths = new ArrayList<String>(Arrays.asList(server.getApiPath()));
+        ur.maxAttempts = 1;
+
+        assertTrue(new VesselUploader().upload(ur).success);
+        assertNotNull(server.getArchive("round-trip"));
+    }
+
+    @Test
+    public void abortedUploadDoesNotFailOver() throws Exception {
+        VesselUploader.UploadRequest ur = createRequest();
+        ur.apiPath = getClosedEndpoint();
+        ur.fallbackPaths = new ArrayList<String>(Arrays.asList(server.getApiPath()));
+        ur.maxAttempts = 1;
+
+        Thread.currentThread().interrupt();
+        try {
+            new VesselUploader().upload(ur);
+            fail("Uploaded after the build was aborted");
+        } catch (IOException e) {
+            assertNull(server.getArchive("round-trip"));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * An endpoint nothing listens on.
+     */
+    private static String getClosedEndpoint() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        socket.close();
+        return "http://127.0.0.1:" + socket.getLocalPort() + VesselStandInServer.API_PATH;
+    }
+
+    @Test
+    public void rejectedVersion() throws Exception {
+        new VesselUploader().upload(createRequest());
+        server.setRejectRate(1);
+        VesselResponse response = new VesselUploader().upload(createRequest());
+
+        assertFalse(response.success);
+        assertEquals(Arrays.asList("Please increment version code, push with version code 1 already exist"), response.fieldErrors.get("apk"));
+    }
+
+    @Test
+    public void delta() throws Exception {
+        writeArchive();
+        new VesselUploader().upload(createRequest());
+        int requests = server.getRequests();
+
+        VesselResponse response = new VesselUploader().upload(createDeltaRequest());
+
+        assertTrue(response.success);
+        assertEquals(requests + 1, server.getRequests());
+        assertTrue(response.timings.getBytesSent() < file.length());
+        assertArrayEquals(FileUtils.readFileToByteArray(file), FileUtils.readFileToByteArray(server.getArchive("round-trip")));
+    }
+
+    @Test
+    public void deltaNotSupportedIsRemembered() throws Exception {
+        writeArchive();
+        server.setDeltas(false);
+        new VesselUploader().upload(createRequest());
+        int requests = server.getRequests();
+
+        assertTrue(new VesselUploader().upload(createDeltaRequest()).success);
+        assertEquals(requests + 2, server.getRequests());
+        assertTrue(new VesselUploader().upload(createDeltaRequest()).success);
+        assertEquals(requests + 3, server.getRequests());
+    }
+
+    private VesselUploader.UploadRequest createDeltaRequest() throws IOException {
+        VesselUploader.UploadRequest ur = createRequest();
+        ur.replace = true;
+        ur.delta = true;
+        ur.deltaBase = ArchiveIndex.scan(file);
+        return ur;
+    }
+
+    /**
+     * Replaces the upload by an archive of a few entries.
+     */
+    private void writeArchive() throws IOException {
+        Random random = new Random(11);
+        ZipOutputStream out = new ZipOutputStream(FileUtils.openOutputStream(file));
+        try {
+            for (int i = 0; i < 4; i++) {
+                byte [] content = new byte[64 * 1024];
+                random.nextBytes(content);
+                out.putNextEntry(new ZipEntry("entry" + i));
+                out.write(content);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}